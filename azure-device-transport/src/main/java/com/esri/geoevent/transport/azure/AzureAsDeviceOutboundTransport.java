@@ -32,16 +32,21 @@ import com.esri.ges.framework.i18n.BundleLoggerFactory;
 import com.esri.ges.transport.GeoEventAwareTransport;
 import com.esri.ges.transport.OutboundTransportBase;
 import com.esri.ges.transport.TransportDefinition;
+import com.esri.ges.util.Validator;
 import com.microsoft.azure.sdk.iot.device.DeviceClient;
 import com.microsoft.azure.sdk.iot.device.IotHubClientProtocol;
 import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
 import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
 import com.microsoft.azure.sdk.iot.device.Message;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class AzureAsDeviceOutboundTransport extends OutboundTransportBase implements GeoEventAwareTransport, IotHubEventCallback {
@@ -51,11 +56,51 @@ public class AzureAsDeviceOutboundTransport extends OutboundTransportBase implem
   // connection properties
   private String connectionString = "";
   private IotHubClientProtocol connectionProtocol = IotHubClientProtocol.valueOf(AzureAsDeviceOutboundTransportDefinition.DEFAULT_CONNECTION_PROTOCOL);
+  private boolean enableSpillJournal = false;
+  private String spillDirectory = "";
+  private int spillMaxMegabytes = AzureAsDeviceOutboundTransportDefinition.DEFAULT_SPILL_MAX_MEGABYTES;
+  private int spillReplayRate = AzureAsDeviceOutboundTransportDefinition.DEFAULT_SPILL_REPLAY_RATE;
+  private boolean enableSendMetrics = false;
+  private boolean useDeviceIdField = false;
+  private String deviceIdFieldName = "";
+  private String deviceSasFieldName = "";
+  private int maxDeviceClients = AzureAsDeviceOutboundTransportDefinition.DEFAULT_MAX_DEVICE_CLIENTS;
+  private int deviceClientIdleTimeout = AzureAsDeviceOutboundTransportDefinition.DEFAULT_DEVICE_CLIENT_IDLE_TIMEOUT;
+  private int maxInFlightMessages = AzureAsDeviceOutboundTransportDefinition.DEFAULT_MAX_IN_FLIGHT_MESSAGES;
+  private String windowFullPolicy = AzureAsDeviceOutboundTransportDefinition.DEFAULT_WINDOW_FULL_POLICY;
+  private boolean enablePacking = false;
+  private String packingFormat = AzureAsDeviceOutboundTransportDefinition.DEFAULT_PACKING_FORMAT;
+  private int packingMaxBytes = AzureAsDeviceOutboundTransportDefinition.DEFAULT_PACKING_MAX_BYTES;
+  private int packingLinger = AzureAsDeviceOutboundTransportDefinition.DEFAULT_PACKING_LINGER;
 
   private volatile boolean propertiesNeedUpdating = false;
 
   // device id client and receiver
-  private DeviceClient deviceClient = null;
+  private volatile DeviceClient deviceClient = null;
+
+  // clients of the devices named by the events, used instead of the single device client
+  private volatile DeviceClientPool deviceClientPool = null;
+  private volatile DeviceIdResolver deviceIdResolver = null;
+  private volatile DeviceIdResolver deviceSasResolver = null;
+
+  // messages handed to the device client without a reply yet, bounded to keep its queue in check
+  private static final long WINDOW_BLOCK_TIMEOUT_SECONDS = 60L;
+  private volatile Semaphore inFlightWindow = new Semaphore(AzureAsDeviceOutboundTransportDefinition.DEFAULT_MAX_IN_FLIGHT_MESSAGES);
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicLong shedCount = new AtomicLong();
+
+  // packs several events into one message when enabled
+  private volatile MessagePacker messagePacker = null;
+  // journal keys of packed messages start with a character device ids cannot contain
+  private static final char PACKED_KEY_MARKER = '\u0001';
+
+  // events that could not be sent, replayed in order once the IoT Hub can be reached again
+  private static final long REPLAY_TIMEOUT_SECONDS = 60L;
+  private volatile SpillJournal journal = null;
+
+  // send statistics, replaced on every setup and published over JMX when enabled
+  private static final String METRICS_TYPE = "IoTDeviceOutbound";
+  private volatile OutboundMetrics metrics = new OutboundMetrics(METRICS_TYPE, "");
 
   public AzureAsDeviceOutboundTransport(TransportDefinition definition) throws ComponentException {
     super(definition);
@@ -74,11 +119,44 @@ public class AzureAsDeviceOutboundTransport extends OutboundTransportBase implem
     setup();
   }
 
+  @Override
+  public synchronized void stop() {
+    if (getRunningState() == RunningState.STOPPING)
+      return;
+
+    setRunningState(RunningState.STOPPING);
+    // sends the open packs, closes the device clients and the journal and unregisters the metrics
+    cleanup();
+    setErrorMessage(null);
+    setRunningState(RunningState.STOPPED);
+  }
+
   @Override
   public void execute(IotHubStatusCode responseStatus, Object callbackContext)
   {
     // IotHubEventCallback - message sent callback with a feedback response status from the IotHub
-    // TODO ...
+    if (!(callbackContext instanceof PendingMessage))
+      return;
+
+    PendingMessage pending = (PendingMessage) callbackContext;
+    pending.window.release();
+    boolean success = isSuccess(responseStatus);
+    pending.metrics.completed(pending.startNanos, pending.count, pending.payload.length, String.valueOf(responseStatus), success);
+    SpillJournal currentJournal = journal;
+    if (success) {
+      if (currentJournal != null)
+        currentJournal.sendSucceeded();
+      return;
+    }
+    if (isThrottled(responseStatus))
+      pending.metrics.throttled();
+
+    // a failed message is kept for later when there is a journal
+    if (currentJournal != null && currentJournal.append(journalKey(pending.deviceId, pending.packingFormat, pending.count), pending.payload))
+      return;
+    pending.metrics.dropped(pending.count);
+    if (currentJournal == null)
+      LOGGER.warn("MESSAGE_SEND_ERROR", pending.sequence, responseStatus, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pending.startNanos));
   }
 
   public void readProperties() {
@@ -102,6 +180,52 @@ public class AzureAsDeviceOutboundTransport extends OutboundTransportBase implem
           somethingChanged = true;
         }
       }
+      if (hasProperty(AzureAsDeviceOutboundTransportDefinition.ENABLE_SPILL_JOURNAL_PROPERTY_NAME))
+        enableSpillJournal = (Boolean) getProperty(AzureAsDeviceOutboundTransportDefinition.ENABLE_SPILL_JOURNAL_PROPERTY_NAME).getValue();
+      if (enableSpillJournal) {
+        if (hasProperty(AzureAsDeviceOutboundTransportDefinition.SPILL_DIRECTORY_PROPERTY_NAME)) {
+          String newSpillDirectory = getProperty(AzureAsDeviceOutboundTransportDefinition.SPILL_DIRECTORY_PROPERTY_NAME).getValueAsString();
+          spillDirectory = (newSpillDirectory != null) ? newSpillDirectory.trim() : "";
+        }
+        if (hasProperty(AzureAsDeviceOutboundTransportDefinition.SPILL_MAX_MEGABYTES_PROPERTY_NAME))
+          spillMaxMegabytes = (Integer) getProperty(AzureAsDeviceOutboundTransportDefinition.SPILL_MAX_MEGABYTES_PROPERTY_NAME).getValue();
+        if (hasProperty(AzureAsDeviceOutboundTransportDefinition.SPILL_REPLAY_RATE_PROPERTY_NAME))
+          spillReplayRate = (Integer) getProperty(AzureAsDeviceOutboundTransportDefinition.SPILL_REPLAY_RATE_PROPERTY_NAME).getValue();
+      }
+      if (hasProperty(AzureAsDeviceOutboundTransportDefinition.ENABLE_SEND_METRICS_PROPERTY_NAME))
+        enableSendMetrics = (Boolean) getProperty(AzureAsDeviceOutboundTransportDefinition.ENABLE_SEND_METRICS_PROPERTY_NAME).getValue();
+      // Device Identity per Event
+      if (hasProperty(AzureAsDeviceOutboundTransportDefinition.USE_DEVICE_ID_FIELD_PROPERTY_NAME)) {
+        boolean newUseDeviceIdField = (Boolean) getProperty(AzureAsDeviceOutboundTransportDefinition.USE_DEVICE_ID_FIELD_PROPERTY_NAME).getValue();
+        if (useDeviceIdField != newUseDeviceIdField) {
+          useDeviceIdField = newUseDeviceIdField;
+          somethingChanged = true;
+        }
+      }
+      if (useDeviceIdField) {
+        if (hasProperty(AzureAsDeviceOutboundTransportDefinition.DEVICE_ID_FIELD_NAME_PROPERTY_NAME))
+          deviceIdFieldName = getProperty(AzureAsDeviceOutboundTransportDefinition.DEVICE_ID_FIELD_NAME_PROPERTY_NAME).getValueAsString();
+        if (hasProperty(AzureAsDeviceOutboundTransportDefinition.DEVICE_SAS_FIELD_NAME_PROPERTY_NAME))
+          deviceSasFieldName = getProperty(AzureAsDeviceOutboundTransportDefinition.DEVICE_SAS_FIELD_NAME_PROPERTY_NAME).getValueAsString();
+        if (hasProperty(AzureAsDeviceOutboundTransportDefinition.MAX_DEVICE_CLIENTS_PROPERTY_NAME))
+          maxDeviceClients = (Integer) getProperty(AzureAsDeviceOutboundTransportDefinition.MAX_DEVICE_CLIENTS_PROPERTY_NAME).getValue();
+        if (hasProperty(AzureAsDeviceOutboundTransportDefinition.DEVICE_CLIENT_IDLE_TIMEOUT_PROPERTY_NAME))
+          deviceClientIdleTimeout = (Integer) getProperty(AzureAsDeviceOutboundTransportDefinition.DEVICE_CLIENT_IDLE_TIMEOUT_PROPERTY_NAME).getValue();
+      }
+      if (hasProperty(AzureAsDeviceOutboundTransportDefinition.MAX_IN_FLIGHT_MESSAGES_PROPERTY_NAME))
+        maxInFlightMessages = (Integer) getProperty(AzureAsDeviceOutboundTransportDefinition.MAX_IN_FLIGHT_MESSAGES_PROPERTY_NAME).getValue();
+      if (hasProperty(AzureAsDeviceOutboundTransportDefinition.WINDOW_FULL_POLICY_PROPERTY_NAME))
+        windowFullPolicy = getProperty(AzureAsDeviceOutboundTransportDefinition.WINDOW_FULL_POLICY_PROPERTY_NAME).getValueAsString();
+      if (hasProperty(AzureAsDeviceOutboundTransportDefinition.ENABLE_PACKING_PROPERTY_NAME))
+        enablePacking = (Boolean) getProperty(AzureAsDeviceOutboundTransportDefinition.ENABLE_PACKING_PROPERTY_NAME).getValue();
+      if (enablePacking) {
+        if (hasProperty(AzureAsDeviceOutboundTransportDefinition.PACKING_FORMAT_PROPERTY_NAME))
+          packingFormat = getProperty(AzureAsDeviceOutboundTransportDefinition.PACKING_FORMAT_PROPERTY_NAME).getValueAsString();
+        if (hasProperty(AzureAsDeviceOutboundTransportDefinition.PACKING_MAX_BYTES_PROPERTY_NAME))
+          packingMaxBytes = (Integer) getProperty(AzureAsDeviceOutboundTransportDefinition.PACKING_MAX_BYTES_PROPERTY_NAME).getValue();
+        if (hasProperty(AzureAsDeviceOutboundTransportDefinition.PACKING_LINGER_PROPERTY_NAME))
+          packingLinger = (Integer) getProperty(AzureAsDeviceOutboundTransportDefinition.PACKING_LINGER_PROPERTY_NAME).getValue();
+      }
       propertiesNeedUpdating = somethingChanged;
     } catch (Exception ex) {
       LOGGER.error("INIT_ERROR", ex.getMessage());
@@ -122,7 +246,12 @@ public class AzureAsDeviceOutboundTransport extends OutboundTransportBase implem
         propertiesNeedUpdating = false;
       }
 
+      // messages still in flight release the window they were sent with
+      inFlightWindow = new Semaphore(Math.max(1, maxInFlightMessages));
+      openMetrics();
       createDeviceClient();
+      openJournal();
+      openPacker();
 
       setErrorMessage(errorMessage);
       setRunningState(runningState);
@@ -136,24 +265,175 @@ public class AzureAsDeviceOutboundTransport extends OutboundTransportBase implem
 
   private void createDeviceClient() throws IOException, URISyntaxException {
     closeDeviceClient();
-    deviceClient = new DeviceClient(connectionString, connectionProtocol);
-    deviceClient.open();
+    if (useDeviceIdField) {
+      // clients are opened per device as events arrive
+      deviceIdResolver = new DeviceIdResolver(null, deviceIdFieldName);
+      deviceSasResolver = Validator.isNotBlank(deviceSasFieldName) ? new DeviceIdResolver(null, deviceSasFieldName) : null;
+      deviceClientPool = new DeviceClientPool(connectionString, connectionProtocol, maxDeviceClients, TimeUnit.SECONDS.toMillis(deviceClientIdleTimeout));
+      return;
+    }
+    DeviceClient client = new DeviceClient(connectionString, connectionProtocol);
+    client.open();
+    deviceClient = client;
   }
 
   private void closeDeviceClient() {
-    // clean up the service client
-    if (deviceClient != null) {
+    // clean up the device clients
+    DeviceClient client = deviceClient;
+    deviceClient = null;
+    if (client != null) {
       try {
-        deviceClient.close();
+        client.close();
       } catch (Exception error) {
         // ignored
       }
-      deviceClient = null;
+    }
+    DeviceClientPool pool = deviceClientPool;
+    deviceClientPool = null;
+    if (pool != null)
+      pool.close();
+  }
+
+  /**
+   * The client to send as the given device, or the single device client without a device id.
+   */
+  private DeviceClient clientFor(String deviceId, String sasToken) throws IOException, URISyntaxException {
+    DeviceClientPool pool = deviceClientPool;
+    DeviceClient client = (deviceId != null && pool != null) ? pool.get(deviceId, sasToken) : deviceClient;
+    if (client == null)
+      throw new IllegalStateException(LOGGER.translate("CLIENT_NOT_OPEN"));
+    return client;
+  }
+
+  private static String fieldValue(DeviceIdResolver resolver, GeoEvent geoEvent) {
+    int index = resolver.indexOf(geoEvent.getGeoEventDefinition());
+    return (index >= 0) ? resolver.deviceIdOf(geoEvent.getField(index)) : null;
+  }
+
+  private void openJournal() throws IOException {
+    closeJournal();
+    if (!enableSpillJournal)
+      return;
+
+    File root = spillDirectory.isEmpty() ? new File(System.getProperty("java.io.tmpdir"), "azure-as-device-journal") : new File(spillDirectory);
+    // every output keeps its own journal, even when several send as the same device
+    File directory = new File(root, SpillJournal.directoryName(getId(), connectionString));
+    SpillJournal newJournal = new SpillJournal(directory, spillMaxMegabytes * 1024L * 1024L, spillReplayRate, this::replay);
+    try {
+      newJournal.open();
+    } catch (IOException error) {
+      throw new IOException(LOGGER.translate("JOURNAL_OPEN_ERROR", directory.getAbsolutePath(), error.getMessage()), error);
+    }
+    journal = newJournal;
+    metrics.setJournalPendingCount(newJournal::getPendingCount);
+  }
+
+  private void closeJournal() {
+    SpillJournal currentJournal = journal;
+    journal = null;
+    if (currentJournal != null)
+      currentJournal.close();
+  }
+
+  private void openPacker() {
+    closePacker();
+    if (enablePacking)
+      messagePacker = new MessagePacker(packingFormat, packingMaxBytes, packingLinger, this::send);
+  }
+
+  private void closePacker() {
+    MessagePacker packer = messagePacker;
+    messagePacker = null;
+    if (packer != null)
+      packer.close();
+  }
+
+  private static Message createMessage(byte[] payload, String packingFormat, int count) {
+    Message message = new Message(payload);
+    if (packingFormat != null) {
+      message.setProperty(MessagePacker.FORMAT_PROPERTY, packingFormat);
+      if (count > 0)
+        message.setProperty(MessagePacker.COUNT_PROPERTY, String.valueOf(count));
+    }
+    return message;
+  }
+
+  /**
+   * The journal key of a message, its device id, preceded by the packing format and event count
+   * of packed messages.
+   */
+  private static String journalKey(String deviceId, String packingFormat, int count) {
+    if (packingFormat == null)
+      return deviceId;
+    return PACKED_KEY_MARKER + packingFormat + PACKED_KEY_MARKER + count + PACKED_KEY_MARKER + ((deviceId != null) ? deviceId : "");
+  }
+
+  private void openMetrics() {
+    metrics.unregister();
+    String device = useDeviceIdField ? "*" : OutboundMetrics.connectionStringValue(connectionString, "DeviceId");
+    String target = OutboundMetrics.connectionStringValue(connectionString, "HostName") + "/" + device;
+    metrics = new OutboundMetrics(METRICS_TYPE, target);
+    if (enableSendMetrics)
+      metrics.register();
+  }
+
+  /**
+   * Sends a journaled event and waits for the IoT Hub to acknowledge it.
+   */
+  private void replay(String key, byte[] payload) throws Exception {
+    String deviceId = key;
+    String replayPackingFormat = null;
+    int count = 1;
+    if (key != null && !key.isEmpty() && key.charAt(0) == PACKED_KEY_MARKER) {
+      String[] parts = key.substring(1).split(String.valueOf(PACKED_KEY_MARKER), 3);
+      replayPackingFormat = parts[0];
+      count = Integer.parseInt(parts[1]);
+      deviceId = parts[2].isEmpty() ? null : parts[2];
+    }
+    // journaled with the id of the device it was sent as, if it was not the single device
+    DeviceClient client = clientFor(deviceId, null);
+
+    // replayed events take a place in the same window as new ones
+    Semaphore window = inFlightWindow;
+    if (!window.tryAcquire(REPLAY_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+      throw new IOException(LOGGER.translate("WINDOW_FULL", maxInFlightMessages));
+
+    OutboundMetrics sendMetrics = metrics;
+    long start = sendMetrics.started();
+    CompletableFuture<IotHubStatusCode> status = new CompletableFuture<>();
+    IotHubStatusCode responseStatus;
+    try {
+      client.sendEventAsync(createMessage(payload, replayPackingFormat, count), (callbackStatus, callbackContext) -> status.complete(callbackStatus), null);
+      responseStatus = status.get(REPLAY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (Exception error) {
+      sendMetrics.completed(start, count, payload.length, error.getClass().getSimpleName(), false);
+      throw error;
+    } finally {
+      window.release();
+    }
+    sendMetrics.completed(start, count, payload.length, String.valueOf(responseStatus), isSuccess(responseStatus));
+    if (!isSuccess(responseStatus)) {
+      if (isThrottled(responseStatus))
+        sendMetrics.throttled();
+      throw new IOException(LOGGER.translate("SEND_ERROR", responseStatus));
     }
   }
 
+  private static boolean isSuccess(IotHubStatusCode responseStatus) {
+    return responseStatus == IotHubStatusCode.OK || responseStatus == IotHubStatusCode.OK_EMPTY;
+  }
+
+  private static boolean isThrottled(IotHubStatusCode responseStatus) {
+    return responseStatus == IotHubStatusCode.THROTTLED || responseStatus == IotHubStatusCode.SERVER_BUSY;
+  }
+
   protected void cleanup() {
+    // the last packs go out while the client is still open
+    closePacker();
     closeDeviceClient();
+    // whatever failed while closing the clients is in the journal by now
+    closeJournal();
+    metrics.unregister();
   }
 
   @Override
@@ -167,20 +447,133 @@ public class AzureAsDeviceOutboundTransport extends OutboundTransportBase implem
       if (geoEvent == null)
         return;
 
-      try {
-        // Send Event as a Device
-        String messageStr = new String(buffer.array(), StandardCharsets.UTF_8);
-        Message message = new Message(messageStr);
-        deviceClient.sendEventAsync(message, this, 1);
-      } catch (Exception e) {
-        //LOGGER.warn("FAILED_TO_SEND_INVALID_DEVICE_ID", deviceIdFieldName);
-        setErrorMessage(e.getMessage());
-        LOGGER.error(e.getMessage(), e);
-        setRunningState(RunningState.ERROR);
+      String deviceId = null;
+      String sasToken = null;
+      DeviceIdResolver resolver = deviceIdResolver;
+      if (useDeviceIdField && resolver != null) {
+        deviceId = fieldValue(resolver, geoEvent);
+        if (deviceId == null) {
+          LOGGER.warn("FAILED_TO_SEND_INVALID_DEVICE_ID", deviceIdFieldName);
+          return;
+        }
+        DeviceIdResolver sasResolver = deviceSasResolver;
+        sasToken = (sasResolver != null) ? fieldValue(sasResolver, geoEvent) : null;
       }
+
+      byte[] bytes = OutboundPayload.toBytes(buffer);
+      MessagePacker packer = messagePacker;
+      if (packer != null)
+        packer.add(deviceId, sasToken, bytes);
+      else
+        send(deviceId, sasToken, bytes, null, 1);
     } else {
       LOGGER.debug("RECEIVED_BUFFER_WHEN_STOPPED", "");
     }
   }
 
+  /**
+   * Sends a message holding one event, or several events packed in the given format.
+   */
+  private void send(String deviceId, String sasToken, byte[] bytes, String messagePackingFormat, int count) {
+    OutboundMetrics sendMetrics = metrics;
+    SpillJournal currentJournal = journal;
+    String key = journalKey(deviceId, messagePackingFormat, count);
+    if (currentJournal != null && currentJournal.isFailing()) {
+      // queue up behind the events that failed, until a send succeeds again
+      if (!currentJournal.append(key, bytes))
+        sendMetrics.dropped(count);
+      return;
+    }
+
+    Semaphore window = inFlightWindow;
+    if (!acquire(window)) {
+      // shed the event, to the journal when there is one
+      shedCount.addAndGet(count);
+      if (currentJournal == null || !currentJournal.append(key, bytes))
+        sendMetrics.dropped(count);
+      return;
+    }
+
+    long start = sendMetrics.started();
+    try {
+      // Send Event as a Device
+      Message message = createMessage(bytes, messagePackingFormat, count);
+      clientFor(deviceId, sasToken).sendEventAsync(message, this, new PendingMessage(sequence.incrementAndGet(), window, sendMetrics, start, deviceId, bytes, messagePackingFormat, count));
+    } catch (Exception e) {
+      window.release();
+      sendMetrics.completed(start, count, bytes.length, e.getClass().getSimpleName(), false);
+      if (currentJournal != null && currentJournal.append(key, bytes))
+        return;
+      sendMetrics.dropped(count);
+      if (currentJournal != null)
+        return;
+      if (deviceId != null) {
+        // one device failing to connect does not stop the others
+        LOGGER.warn("DEVICE_SEND_ERROR", deviceId, e.getMessage());
+        return;
+      }
+      setErrorMessage(e.getMessage());
+      LOGGER.error(e.getMessage(), e);
+      setRunningState(RunningState.ERROR);
+    }
+  }
+
+  /**
+   * Takes a place in the in-flight window, waiting for one unless events are shed when it is full.
+   */
+  private boolean acquire(Semaphore window) {
+    if (AzureAsDeviceOutboundTransportDefinition.WINDOW_FULL_POLICY_DROP.equals(windowFullPolicy))
+      return window.tryAcquire();
+    try {
+      // a client that never replies must not hang the GeoEvent thread for good
+      return window.tryAcquire(WINDOW_BLOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  @Override
+  public String getStatusDetails() {
+    SpillJournal currentJournal = journal;
+    if (getRunningState() == RunningState.ERROR || !(enableSendMetrics || currentJournal != null || deviceClientPool != null))
+      return super.getStatusDetails();
+    OutboundMetrics currentMetrics = metrics;
+    String status = LOGGER.translate("SEND_STATUS", currentMetrics.getMessageCount(), currentMetrics.getFailureCount(), currentMetrics.getInFlightCount());
+    if (shedCount.get() > 0L)
+      status += " " + LOGGER.translate("SHED_STATUS", shedCount.get());
+    if (currentJournal != null)
+      status += " " + LOGGER.translate("JOURNAL_STATUS", currentJournal.getPendingCount(), currentJournal.getReplayedCount(), currentJournal.getDroppedCount());
+    DeviceClientPool pool = deviceClientPool;
+    if (pool != null)
+      status += " " + LOGGER.translate("DEVICE_POOL_STATUS", pool.getOpenCount(), pool.getOpenedCount(), pool.getIdleClosedCount(), pool.getEvictedCount());
+    return status;
+  }
+
+  /**
+   * Callback context of a message in flight, carrying what is needed to record its outcome, to
+   * free its place in the window and to keep its payload when it fails.
+   */
+  private static final class PendingMessage {
+    private final long sequence;
+    private final Semaphore window;
+    private final OutboundMetrics metrics;
+    private final long startNanos;
+    private final String deviceId;
+    private final byte[] payload;
+    private final String packingFormat;
+    private final int count;
+
+    PendingMessage(long sequence, Semaphore window, OutboundMetrics metrics, long startNanos, String deviceId, byte[] payload, String packingFormat, int count) {
+      this.sequence = sequence;
+      this.window = window;
+      this.metrics = metrics;
+      this.startNanos = startNanos;
+      this.deviceId = deviceId;
+      this.payload = payload;
+      this.packingFormat = packingFormat;
+      this.count = count;
+    }
+  }
+
 }
@@ -49,9 +49,44 @@ public class AzureAsDeviceOutboundTransportDefinition extends TransportDefinitio
   private static final String CONNECTION_PROTOCOL_VAL_4 = "MQTT";
   public  static final String DEFAULT_CONNECTION_PROTOCOL = "AMQPS";
 
+  private static final String WINDOW_FULL_POLICY_LBL_1 = "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_WINDOW_FULL_POLICY_BLOCK_LBL}";
+  public  static final String WINDOW_FULL_POLICY_BLOCK = "Block";
+  private static final String WINDOW_FULL_POLICY_LBL_2 = "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_WINDOW_FULL_POLICY_DROP_LBL}";
+  public  static final String WINDOW_FULL_POLICY_DROP = "Drop";
+
+  private static final String PACKING_FORMAT_LBL_1 = "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_PACKING_FORMAT_JSON_ARRAY_LBL}";
+  private static final String PACKING_FORMAT_LBL_2 = "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_PACKING_FORMAT_NEWLINE_DELIMITED_LBL}";
+
   // property names
   public static final String CONNECTION_STRING_PROPERTY_NAME = "connectionString";
   public static final String CONNECTION_PROTOCOL_PROPERTY_NAME = "connectionProtocol";
+  public static final String ENABLE_SPILL_JOURNAL_PROPERTY_NAME = "enableSpillJournal";
+  public static final String SPILL_DIRECTORY_PROPERTY_NAME = "spillDirectory";
+  public static final String SPILL_MAX_MEGABYTES_PROPERTY_NAME = "spillMaxMegabytes";
+  public static final String SPILL_REPLAY_RATE_PROPERTY_NAME = "spillReplayRate";
+  public static final String ENABLE_SEND_METRICS_PROPERTY_NAME = "enableSendMetrics";
+  public static final String USE_DEVICE_ID_FIELD_PROPERTY_NAME = "useDeviceIdField";
+  public static final String DEVICE_ID_FIELD_NAME_PROPERTY_NAME = "deviceIdFieldName";
+  public static final String DEVICE_SAS_FIELD_NAME_PROPERTY_NAME = "deviceSasFieldName";
+  public static final String MAX_DEVICE_CLIENTS_PROPERTY_NAME = "maxDeviceClients";
+  public static final String DEVICE_CLIENT_IDLE_TIMEOUT_PROPERTY_NAME = "deviceClientIdleTimeout";
+  public static final String MAX_IN_FLIGHT_MESSAGES_PROPERTY_NAME = "maxInFlightMessages";
+  public static final String WINDOW_FULL_POLICY_PROPERTY_NAME = "windowFullPolicy";
+  public static final String ENABLE_PACKING_PROPERTY_NAME = "enablePacking";
+  public static final String PACKING_FORMAT_PROPERTY_NAME = "packingFormat";
+  public static final String PACKING_MAX_BYTES_PROPERTY_NAME = "packingMaxBytes";
+  public static final String PACKING_LINGER_PROPERTY_NAME = "packingLinger";
+
+  // defaults
+  public static final int DEFAULT_SPILL_MAX_MEGABYTES = 1024;
+  public static final int DEFAULT_SPILL_REPLAY_RATE = 100;
+  public static final int DEFAULT_MAX_DEVICE_CLIENTS = 100;
+  public static final int DEFAULT_DEVICE_CLIENT_IDLE_TIMEOUT = 300;
+  public static final int DEFAULT_MAX_IN_FLIGHT_MESSAGES = 1000;
+  public static final String DEFAULT_WINDOW_FULL_POLICY = WINDOW_FULL_POLICY_BLOCK;
+  public static final String DEFAULT_PACKING_FORMAT = MessagePacker.FORMAT_JSON_ARRAY;
+  public static final int DEFAULT_PACKING_MAX_BYTES = 4000;
+  public static final int DEFAULT_PACKING_LINGER = 1000;
 
   public AzureAsDeviceOutboundTransportDefinition() {
     super(TransportType.OUTBOUND);
@@ -62,8 +97,32 @@ public class AzureAsDeviceOutboundTransportDefinition extends TransportDefinitio
       protocolAllowedValues.add(new LabeledValue(CONNECTION_PROTOCOL_LBL_3, CONNECTION_PROTOCOL_VAL_3));
       protocolAllowedValues.add(new LabeledValue(CONNECTION_PROTOCOL_LBL_4, CONNECTION_PROTOCOL_VAL_4));
 
+      List<LabeledValue> windowFullPolicyAllowedValues = new ArrayList<>(2);
+      windowFullPolicyAllowedValues.add(new LabeledValue(WINDOW_FULL_POLICY_LBL_1, WINDOW_FULL_POLICY_BLOCK));
+      windowFullPolicyAllowedValues.add(new LabeledValue(WINDOW_FULL_POLICY_LBL_2, WINDOW_FULL_POLICY_DROP));
+
+      List<LabeledValue> packingFormatAllowedValues = new ArrayList<>(2);
+      packingFormatAllowedValues.add(new LabeledValue(PACKING_FORMAT_LBL_1, MessagePacker.FORMAT_JSON_ARRAY));
+      packingFormatAllowedValues.add(new LabeledValue(PACKING_FORMAT_LBL_2, MessagePacker.FORMAT_NEWLINE_DELIMITED));
+
       propertyDefinitions.put(CONNECTION_STRING_PROPERTY_NAME, new PropertyDefinition(CONNECTION_STRING_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_CONNECTION_STR_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_CONNECTION_STR_DESC}", true, false));
       propertyDefinitions.put(CONNECTION_PROTOCOL_PROPERTY_NAME, new PropertyDefinition(CONNECTION_PROTOCOL_PROPERTY_NAME, PropertyType.String, DEFAULT_CONNECTION_PROTOCOL, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_PROTOCOL_STR_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_PROTOCOL_STR_DESC}", true, false, protocolAllowedValues));
+      propertyDefinitions.put(ENABLE_SPILL_JOURNAL_PROPERTY_NAME, new PropertyDefinition(ENABLE_SPILL_JOURNAL_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_ENABLE_SPILL_JOURNAL_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_ENABLE_SPILL_JOURNAL_DESC}", false, false));
+      propertyDefinitions.put(SPILL_DIRECTORY_PROPERTY_NAME, new PropertyDefinition(SPILL_DIRECTORY_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_SPILL_DIRECTORY_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_SPILL_DIRECTORY_DESC}", "enableSpillJournal=true", false, false));
+      propertyDefinitions.put(SPILL_MAX_MEGABYTES_PROPERTY_NAME, new PropertyDefinition(SPILL_MAX_MEGABYTES_PROPERTY_NAME, PropertyType.Integer, DEFAULT_SPILL_MAX_MEGABYTES, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_SPILL_MAX_MEGABYTES_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_SPILL_MAX_MEGABYTES_DESC}", "enableSpillJournal=true", false, false));
+      propertyDefinitions.put(SPILL_REPLAY_RATE_PROPERTY_NAME, new PropertyDefinition(SPILL_REPLAY_RATE_PROPERTY_NAME, PropertyType.Integer, DEFAULT_SPILL_REPLAY_RATE, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_SPILL_REPLAY_RATE_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_SPILL_REPLAY_RATE_DESC}", "enableSpillJournal=true", false, false));
+      propertyDefinitions.put(ENABLE_SEND_METRICS_PROPERTY_NAME, new PropertyDefinition(ENABLE_SEND_METRICS_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_ENABLE_SEND_METRICS_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_ENABLE_SEND_METRICS_DESC}", false, false));
+      propertyDefinitions.put(USE_DEVICE_ID_FIELD_PROPERTY_NAME, new PropertyDefinition(USE_DEVICE_ID_FIELD_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_USE_DEVICE_ID_FIELD_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_USE_DEVICE_ID_FIELD_DESC}", false, false));
+      propertyDefinitions.put(DEVICE_ID_FIELD_NAME_PROPERTY_NAME, new PropertyDefinition(DEVICE_ID_FIELD_NAME_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_DEVICE_ID_FIELD_NAME_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_DEVICE_ID_FIELD_NAME_DESC}", "useDeviceIdField=true", false, false));
+      propertyDefinitions.put(DEVICE_SAS_FIELD_NAME_PROPERTY_NAME, new PropertyDefinition(DEVICE_SAS_FIELD_NAME_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_DEVICE_SAS_FIELD_NAME_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_DEVICE_SAS_FIELD_NAME_DESC}", "useDeviceIdField=true", false, false));
+      propertyDefinitions.put(MAX_DEVICE_CLIENTS_PROPERTY_NAME, new PropertyDefinition(MAX_DEVICE_CLIENTS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_DEVICE_CLIENTS, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_MAX_DEVICE_CLIENTS_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_MAX_DEVICE_CLIENTS_DESC}", "useDeviceIdField=true", false, false));
+      propertyDefinitions.put(DEVICE_CLIENT_IDLE_TIMEOUT_PROPERTY_NAME, new PropertyDefinition(DEVICE_CLIENT_IDLE_TIMEOUT_PROPERTY_NAME, PropertyType.Integer, DEFAULT_DEVICE_CLIENT_IDLE_TIMEOUT, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_DEVICE_CLIENT_IDLE_TIMEOUT_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_DEVICE_CLIENT_IDLE_TIMEOUT_DESC}", "useDeviceIdField=true", false, false));
+      propertyDefinitions.put(MAX_IN_FLIGHT_MESSAGES_PROPERTY_NAME, new PropertyDefinition(MAX_IN_FLIGHT_MESSAGES_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_IN_FLIGHT_MESSAGES, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_MAX_IN_FLIGHT_MESSAGES_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_MAX_IN_FLIGHT_MESSAGES_DESC}", false, false));
+      propertyDefinitions.put(WINDOW_FULL_POLICY_PROPERTY_NAME, new PropertyDefinition(WINDOW_FULL_POLICY_PROPERTY_NAME, PropertyType.String, DEFAULT_WINDOW_FULL_POLICY, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_WINDOW_FULL_POLICY_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_WINDOW_FULL_POLICY_DESC}", false, false, windowFullPolicyAllowedValues));
+      propertyDefinitions.put(ENABLE_PACKING_PROPERTY_NAME, new PropertyDefinition(ENABLE_PACKING_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_ENABLE_PACKING_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_ENABLE_PACKING_DESC}", false, false));
+      propertyDefinitions.put(PACKING_FORMAT_PROPERTY_NAME, new PropertyDefinition(PACKING_FORMAT_PROPERTY_NAME, PropertyType.String, DEFAULT_PACKING_FORMAT, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_PACKING_FORMAT_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_PACKING_FORMAT_DESC}", "enablePacking=true", false, false, packingFormatAllowedValues));
+      propertyDefinitions.put(PACKING_MAX_BYTES_PROPERTY_NAME, new PropertyDefinition(PACKING_MAX_BYTES_PROPERTY_NAME, PropertyType.Integer, DEFAULT_PACKING_MAX_BYTES, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_PACKING_MAX_BYTES_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_PACKING_MAX_BYTES_DESC}", "enablePacking=true", false, false));
+      propertyDefinitions.put(PACKING_LINGER_PROPERTY_NAME, new PropertyDefinition(PACKING_LINGER_PROPERTY_NAME, PropertyType.Integer, DEFAULT_PACKING_LINGER, "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_PACKING_LINGER_LBL}", "${com.esri.geoevent.transport.azure-device-transport.AS_DEVICE_PACKING_LINGER_DESC}", "enablePacking=true", false, false));
     } catch (PropertyException error) {
       LOGGER.error("ERROR_LOADING_TRANSPORT_DEFINITION", error);
       throw new RuntimeException(error);
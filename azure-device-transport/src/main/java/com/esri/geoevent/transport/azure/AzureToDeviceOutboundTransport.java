@@ -32,15 +32,16 @@ import com.esri.ges.framework.i18n.BundleLoggerFactory;
 import com.esri.ges.transport.GeoEventAwareTransport;
 import com.esri.ges.transport.OutboundTransportBase;
 import com.esri.ges.transport.TransportDefinition;
-import com.esri.ges.util.Validator;
-import com.microsoft.azure.sdk.iot.service.FeedbackReceiver;
+import com.microsoft.azure.sdk.iot.service.DeliveryAcknowledgement;
 import com.microsoft.azure.sdk.iot.service.IotHubServiceClientProtocol;
 import com.microsoft.azure.sdk.iot.service.Message;
 import com.microsoft.azure.sdk.iot.service.ServiceClient;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class AzureToDeviceOutboundTransport extends OutboundTransportBase implements GeoEventAwareTransport {
   // logger
@@ -51,12 +52,45 @@ public class AzureToDeviceOutboundTransport extends OutboundTransportBase implem
   private IotHubServiceClientProtocol connectionProtocol = IotHubServiceClientProtocol.valueOf(AzureAsDeviceOutboundTransportDefinition.DEFAULT_CONNECTION_PROTOCOL);
   private String deviceIdGedName = "";
   private String deviceIdFieldName = "";
+  private boolean enableSpillJournal = false;
+  private String spillDirectory = "";
+  private int spillMaxMegabytes = AzureToDeviceOutboundTransportDefinition.DEFAULT_SPILL_MAX_MEGABYTES;
+  private int spillReplayRate = AzureToDeviceOutboundTransportDefinition.DEFAULT_SPILL_REPLAY_RATE;
+  private boolean enableSendMetrics = false;
+  private int maxOutstandingSends = AzureToDeviceOutboundTransportDefinition.DEFAULT_MAX_OUTSTANDING_SENDS;
+  private int maxSendRetries = AzureToDeviceOutboundTransportDefinition.DEFAULT_MAX_SEND_RETRIES;
+  private int maxSendsPerSecond = AzureToDeviceOutboundTransportDefinition.DEFAULT_MAX_SENDS_PER_SECOND;
+  private boolean enableDeliveryFeedback = false;
+  private int deliveryFeedbackTimeout = AzureToDeviceOutboundTransportDefinition.DEFAULT_DELIVERY_FEEDBACK_TIMEOUT;
+  private boolean enableCoalescing = false;
+  private int coalescingWindow = AzureToDeviceOutboundTransportDefinition.DEFAULT_COALESCING_WINDOW;
+  private int coalescingMaxDevices = AzureToDeviceOutboundTransportDefinition.DEFAULT_COALESCING_MAX_DEVICES;
 
   private volatile boolean propertiesNeedUpdating = false;
 
-  // device id client and receiver
-  private static ServiceClient serviceClient = null;
-  private static FeedbackReceiver feedbackReceiver = null;
+  // resolves the device id field once per GeoEvent Definition
+  private volatile DeviceIdResolver deviceIdResolver = new DeviceIdResolver(null, null);
+
+  // service client, shared with other connectors of the same hub
+  private volatile ServiceClientRegistry.Lease serviceClientLease = null;
+  private volatile ServiceClient serviceClient = null;
+
+  // delivery feedback of the sent messages, consumed per hub in the background
+  private volatile DeliveryFeedbackTracker feedbackTracker = null;
+  private volatile DeliveryFeedbackMetrics feedbackMetrics = new DeliveryFeedbackMetrics("");
+
+  // bounds, paces and retries the sends of this connector
+  private volatile CloudToDeviceDispatcher dispatcher = null;
+
+  // latest event per device, sent once per window when coalescing
+  private volatile CommandCoalescer coalescer = null;
+
+  // events that could not be sent, replayed in order once the IoT Hub can be reached again
+  private volatile SpillJournal journal = null;
+
+  // send statistics, replaced on every setup and published over JMX when enabled
+  private static final String METRICS_TYPE = "IoTCloudToDeviceOutbound";
+  private volatile OutboundMetrics metrics = new OutboundMetrics(METRICS_TYPE, "");
 
   public AzureToDeviceOutboundTransport(TransportDefinition definition) throws ComponentException {
     super(definition);
@@ -75,6 +109,18 @@ public class AzureToDeviceOutboundTransport extends OutboundTransportBase implem
     setup();
   }
 
+  @Override
+  public synchronized void stop() {
+    if (getRunningState() == RunningState.STOPPING)
+      return;
+
+    setRunningState(RunningState.STOPPING);
+    // sends the coalesced events, closes the service client and the journal and unregisters the metrics
+    cleanup();
+    setErrorMessage(null);
+    setRunningState(RunningState.STOPPED);
+  }
+
   public void readProperties() {
     try {
       boolean somethingChanged = false;
@@ -112,6 +158,38 @@ public class AzureToDeviceOutboundTransport extends OutboundTransportBase implem
           somethingChanged = true;
         }
       }
+      if (hasProperty(AzureToDeviceOutboundTransportDefinition.ENABLE_SPILL_JOURNAL_PROPERTY_NAME))
+        enableSpillJournal = (Boolean) getProperty(AzureToDeviceOutboundTransportDefinition.ENABLE_SPILL_JOURNAL_PROPERTY_NAME).getValue();
+      if (enableSpillJournal) {
+        if (hasProperty(AzureToDeviceOutboundTransportDefinition.SPILL_DIRECTORY_PROPERTY_NAME)) {
+          String newSpillDirectory = getProperty(AzureToDeviceOutboundTransportDefinition.SPILL_DIRECTORY_PROPERTY_NAME).getValueAsString();
+          spillDirectory = (newSpillDirectory != null) ? newSpillDirectory.trim() : "";
+        }
+        if (hasProperty(AzureToDeviceOutboundTransportDefinition.SPILL_MAX_MEGABYTES_PROPERTY_NAME))
+          spillMaxMegabytes = (Integer) getProperty(AzureToDeviceOutboundTransportDefinition.SPILL_MAX_MEGABYTES_PROPERTY_NAME).getValue();
+        if (hasProperty(AzureToDeviceOutboundTransportDefinition.SPILL_REPLAY_RATE_PROPERTY_NAME))
+          spillReplayRate = (Integer) getProperty(AzureToDeviceOutboundTransportDefinition.SPILL_REPLAY_RATE_PROPERTY_NAME).getValue();
+      }
+      if (hasProperty(AzureToDeviceOutboundTransportDefinition.ENABLE_SEND_METRICS_PROPERTY_NAME))
+        enableSendMetrics = (Boolean) getProperty(AzureToDeviceOutboundTransportDefinition.ENABLE_SEND_METRICS_PROPERTY_NAME).getValue();
+      if (hasProperty(AzureToDeviceOutboundTransportDefinition.MAX_OUTSTANDING_SENDS_PROPERTY_NAME))
+        maxOutstandingSends = (Integer) getProperty(AzureToDeviceOutboundTransportDefinition.MAX_OUTSTANDING_SENDS_PROPERTY_NAME).getValue();
+      if (hasProperty(AzureToDeviceOutboundTransportDefinition.MAX_SEND_RETRIES_PROPERTY_NAME))
+        maxSendRetries = (Integer) getProperty(AzureToDeviceOutboundTransportDefinition.MAX_SEND_RETRIES_PROPERTY_NAME).getValue();
+      if (hasProperty(AzureToDeviceOutboundTransportDefinition.MAX_SENDS_PER_SECOND_PROPERTY_NAME))
+        maxSendsPerSecond = (Integer) getProperty(AzureToDeviceOutboundTransportDefinition.MAX_SENDS_PER_SECOND_PROPERTY_NAME).getValue();
+      if (hasProperty(AzureToDeviceOutboundTransportDefinition.ENABLE_DELIVERY_FEEDBACK_PROPERTY_NAME))
+        enableDeliveryFeedback = (Boolean) getProperty(AzureToDeviceOutboundTransportDefinition.ENABLE_DELIVERY_FEEDBACK_PROPERTY_NAME).getValue();
+      if (enableDeliveryFeedback && hasProperty(AzureToDeviceOutboundTransportDefinition.DELIVERY_FEEDBACK_TIMEOUT_PROPERTY_NAME))
+        deliveryFeedbackTimeout = (Integer) getProperty(AzureToDeviceOutboundTransportDefinition.DELIVERY_FEEDBACK_TIMEOUT_PROPERTY_NAME).getValue();
+      if (hasProperty(AzureToDeviceOutboundTransportDefinition.ENABLE_COALESCING_PROPERTY_NAME))
+        enableCoalescing = (Boolean) getProperty(AzureToDeviceOutboundTransportDefinition.ENABLE_COALESCING_PROPERTY_NAME).getValue();
+      if (enableCoalescing) {
+        if (hasProperty(AzureToDeviceOutboundTransportDefinition.COALESCING_WINDOW_PROPERTY_NAME))
+          coalescingWindow = (Integer) getProperty(AzureToDeviceOutboundTransportDefinition.COALESCING_WINDOW_PROPERTY_NAME).getValue();
+        if (hasProperty(AzureToDeviceOutboundTransportDefinition.COALESCING_MAX_DEVICES_PROPERTY_NAME))
+          coalescingMaxDevices = (Integer) getProperty(AzureToDeviceOutboundTransportDefinition.COALESCING_MAX_DEVICES_PROPERTY_NAME).getValue();
+      }
       propertiesNeedUpdating = somethingChanged;
     } catch (Exception ex) {
       LOGGER.error("INIT_ERROR", ex.getMessage());
@@ -132,7 +210,11 @@ public class AzureToDeviceOutboundTransport extends OutboundTransportBase implem
         propertiesNeedUpdating = false;
       }
 
+      deviceIdResolver = new DeviceIdResolver(deviceIdGedName, deviceIdFieldName);
+      openMetrics();
       createServiceClient();
+      openJournal();
+      openCoalescer();
 
       setErrorMessage(errorMessage);
       setRunningState(runningState);
@@ -145,41 +227,141 @@ public class AzureToDeviceOutboundTransport extends OutboundTransportBase implem
   }
 
   private void createServiceClient() throws IOException {
+    // the new lease is taken first, a restart on the same hub keeps the shared client open
+    ServiceClientRegistry.Lease previousLease = serviceClientLease;
+    serviceClientLease = null;
     closeServiceClient();
-    serviceClient = ServiceClient.createFromConnectionString(connectionString, connectionProtocol);
-    serviceClient.open();
-
-    // feedbackReceiver = serviceClient.getFeedbackReceiver(deviceId);
-    // if (feedbackReceiver == null)
-    // {
-    // // TODO: error messages
-    // throw new RuntimeException("ERROR");
-    // }
-    // feedbackReceiver.open();
+    try {
+      serviceClientLease = ServiceClientRegistry.acquire(connectionString, connectionProtocol);
+      ServiceClient client = serviceClientLease.getClient();
+      RateLimiter rateLimiter = (maxSendsPerSecond > 0) ? serviceClientLease.getRateLimiter(maxSendsPerSecond) : null;
+      dispatcher = new CloudToDeviceDispatcher(client::sendAsync, maxOutstandingSends, maxSendRetries, rateLimiter, metrics);
+      if (enableDeliveryFeedback)
+        feedbackTracker = serviceClientLease.getFeedbackTracker(TimeUnit.SECONDS.toMillis(deliveryFeedbackTimeout));
+      serviceClient = client;
+    } finally {
+      if (previousLease != null)
+        previousLease.release();
+    }
   }
 
   private void closeServiceClient() {
-    // clean up the service client
-    if (serviceClient != null) {
-      try {
-        serviceClient.close();
-      } catch (Exception error) {
-        // ignored
-      }
+    // let the outstanding sends finish while the client is still open
+    CloudToDeviceDispatcher currentDispatcher = dispatcher;
+    dispatcher = null;
+    if (currentDispatcher != null)
+      currentDispatcher.close();
+
+    // give up this connector's share of the service client and the feedback consumer
+    ServiceClientRegistry.Lease lease = serviceClientLease;
+    serviceClientLease = null;
+    serviceClient = null;
+    feedbackTracker = null;
+    if (lease != null)
+      lease.release();
+  }
+
+  private void openJournal() throws IOException {
+    closeJournal();
+    if (!enableSpillJournal)
+      return;
+
+    File root = spillDirectory.isEmpty() ? new File(System.getProperty("java.io.tmpdir"), "azure-to-device-journal") : new File(spillDirectory);
+    // every output keeps its own journal, even when several write to the same IoT Hub
+    File directory = new File(root, SpillJournal.directoryName(getId(), connectionString));
+    SpillJournal newJournal = new SpillJournal(directory, spillMaxMegabytes * 1024L * 1024L, spillReplayRate, this::replay);
+    try {
+      newJournal.open();
+    } catch (IOException error) {
+      throw new IOException(LOGGER.translate("JOURNAL_OPEN_ERROR", directory.getAbsolutePath(), error.getMessage()), error);
     }
+    journal = newJournal;
+    metrics.setJournalPendingCount(newJournal::getPendingCount);
+  }
 
-    // clean up the feedback receiver
-    if (feedbackReceiver != null) {
-      try {
-        feedbackReceiver.close();
-      } catch (Exception error) {
-        // ignored
-      }
+  private void closeJournal() {
+    SpillJournal currentJournal = journal;
+    journal = null;
+    if (currentJournal != null)
+      currentJournal.close();
+  }
+
+  private void openCoalescer() {
+    closeCoalescer();
+    if (enableCoalescing)
+      coalescer = new CommandCoalescer(coalescingWindow, coalescingMaxDevices, this::send);
+  }
+
+  private void closeCoalescer() {
+    CommandCoalescer currentCoalescer = coalescer;
+    coalescer = null;
+    if (currentCoalescer != null)
+      currentCoalescer.close();
+  }
+
+  private void openMetrics() {
+    metrics.unregister();
+    feedbackMetrics.unregister();
+    String hostName = OutboundMetrics.connectionStringValue(connectionString, "HostName");
+    metrics = new OutboundMetrics(METRICS_TYPE, hostName);
+    feedbackMetrics = new DeliveryFeedbackMetrics(hostName);
+    if (enableSendMetrics) {
+      metrics.register();
+      if (enableDeliveryFeedback)
+        feedbackMetrics.register();
+    }
+  }
+
+  /**
+   * Creates the message of an event, asking for delivery feedback when it is tracked.
+   */
+  private Message createMessage(byte[] payload) {
+    Message message = new Message(payload);
+    DeliveryFeedbackTracker tracker = feedbackTracker;
+    String messageId = (tracker != null) ? tracker.track(feedbackMetrics) : null;
+    if (messageId != null) {
+      message.setMessageId(messageId);
+      message.setDeliveryAcknowledgement(DeliveryAcknowledgement.Full);
+    }
+    return message;
+  }
+
+  private void messageFailed(Message message) {
+    DeliveryFeedbackTracker tracker = feedbackTracker;
+    if (tracker != null && message.getMessageId() != null)
+      tracker.forget(message.getMessageId());
+  }
+
+  /**
+   * Sends a journaled event to the device it was addressed to.
+   */
+  private void replay(String deviceId, byte[] payload) throws Exception {
+    CloudToDeviceDispatcher currentDispatcher = dispatcher;
+    if (currentDispatcher == null)
+      throw new IllegalStateException(LOGGER.translate("CLIENT_NOT_OPEN"));
+
+    // replayed events count against the same window and quota as new ones
+    OutboundMetrics sendMetrics = metrics;
+    long start = sendMetrics.started();
+    Message message = createMessage(payload);
+    try {
+      currentDispatcher.dispatch(deviceId, message).get();
+    } catch (Exception error) {
+      messageFailed(message);
+      sendMetrics.completed(start, 1, payload.length, statusCode(error), false);
+      throw error;
     }
+    sendMetrics.completed(start, 1, payload.length, OutboundMetrics.STATUS_OK, true);
   }
 
   protected void cleanup() {
+    // the last coalesced events go out while the client is still open
+    closeCoalescer();
     closeServiceClient();
+    // whatever failed while closing the client, including sends the dispatcher gave up on, is in the journal by now
+    closeJournal();
+    metrics.unregister();
+    feedbackMetrics.unregister();
   }
 
   @Override
@@ -195,19 +377,20 @@ public class AzureToDeviceOutboundTransport extends OutboundTransportBase implem
 
       try {
         // Send Event to a Device
-        Object deviceIdObj = geoEvent.getField(deviceIdFieldName);
-        String deviceId = "";
-        if (deviceIdObj != null)
-          deviceId = deviceIdObj.toString();
-
-        if (Validator.isNotBlank(deviceId)) {
-          String messageStr = new String(buffer.array(), StandardCharsets.UTF_8);
-          Message message = new Message(messageStr);
-          serviceClient.sendAsync(deviceId, message);
-
-          // receive feedback from the device
-          // FeedbackBatch feedback = feedbackReceiver.receive(10000);
-          // feedback.toString();
+        DeviceIdResolver resolver = deviceIdResolver;
+        int index = resolver.indexOf(geoEvent.getGeoEventDefinition());
+        if (index == DeviceIdResolver.OTHER_DEFINITION) {
+          LOGGER.debug("SKIPPED_OTHER_DEFINITION", geoEvent.getGeoEventDefinition().getName(), deviceIdGedName);
+          return;
+        }
+        String deviceId = (index >= 0) ? resolver.deviceIdOf(geoEvent.getField(index)) : null;
+
+        if (deviceId != null) {
+          CommandCoalescer currentCoalescer = coalescer;
+          if (currentCoalescer != null)
+            currentCoalescer.offer(deviceId, OutboundPayload.toBytes(buffer));
+          else
+            send(deviceId, OutboundPayload.toBytes(buffer));
         } else {
           LOGGER.warn("FAILED_TO_SEND_INVALID_DEVICE_ID", deviceIdFieldName);
         }
@@ -222,4 +405,74 @@ public class AzureToDeviceOutboundTransport extends OutboundTransportBase implem
     }
   }
 
+  private void send(String deviceId, byte[] bytes) throws Exception {
+    OutboundMetrics sendMetrics = metrics;
+    SpillJournal currentJournal = journal;
+    if (currentJournal != null && currentJournal.isFailing()) {
+      // queue up behind the events that failed, until a send succeeds again
+      if (!currentJournal.append(deviceId, bytes))
+        sendMetrics.dropped(1);
+      return;
+    }
+
+    CloudToDeviceDispatcher currentDispatcher = dispatcher;
+    if (currentDispatcher == null)
+      throw new IllegalStateException(LOGGER.translate("CLIENT_NOT_OPEN"));
+
+    // blocks while too many sends are outstanding, transient failures are retried by the dispatcher
+    Message message = createMessage(bytes);
+    long start = sendMetrics.started();
+    CompletableFuture<Void> future;
+    try {
+      future = currentDispatcher.dispatch(deviceId, message);
+    } catch (Exception error) {
+      messageFailed(message);
+      sendMetrics.completed(start, 1, bytes.length, statusCode(error), false);
+      throw error;
+    }
+    future.whenComplete((result, error) -> {
+      sendMetrics.completed(start, 1, bytes.length, statusCode(error), error == null);
+      if (error == null) {
+        if (currentJournal != null)
+          currentJournal.sendSucceeded();
+        return;
+      }
+      messageFailed(message);
+      // a failed message is kept for later when there is a journal
+      if (currentJournal != null && currentJournal.append(deviceId, bytes))
+        return;
+      sendMetrics.dropped(1);
+      if (currentJournal == null)
+        LOGGER.warn("SEND_ERROR", error.toString());
+    });
+  }
+
+  private static String statusCode(Throwable error) {
+    return (error != null) ? CloudToDeviceDispatcher.unwrap(error).getClass().getSimpleName() : OutboundMetrics.STATUS_OK;
+  }
+
+  @Override
+  public String getStatusDetails() {
+    SpillJournal currentJournal = journal;
+    CloudToDeviceDispatcher currentDispatcher = dispatcher;
+    long[] lastBatch = (currentDispatcher != null) ? currentDispatcher.getLastBatch() : null;
+    boolean feedback = feedbackTracker != null;
+    CommandCoalescer currentCoalescer = coalescer;
+    if (getRunningState() == RunningState.ERROR || !(enableSendMetrics || currentJournal != null || lastBatch != null || feedback || currentCoalescer != null))
+      return super.getStatusDetails();
+    OutboundMetrics currentMetrics = metrics;
+    StringBuilder status = new StringBuilder(LOGGER.translate("SEND_STATUS", currentMetrics.getMessageCount(), currentMetrics.getFailureCount(), currentMetrics.getInFlightCount()));
+    if (currentJournal != null)
+      status.append(' ').append(LOGGER.translate("JOURNAL_STATUS", currentJournal.getPendingCount(), currentJournal.getReplayedCount(), currentJournal.getDroppedCount()));
+    if (lastBatch != null)
+      status.append(' ').append(LOGGER.translate("C2D_BATCH_STATUS", lastBatch[0], lastBatch[1], lastBatch[2], lastBatch[3], lastBatch[4]));
+    if (currentCoalescer != null)
+      status.append(' ').append(LOGGER.translate("COALESCING_STATUS", currentCoalescer.getSupersededCount(), currentCoalescer.getEvictedCount(), currentCoalescer.getWaitingCount()));
+    if (feedback) {
+      DeliveryFeedbackMetrics currentFeedbackMetrics = feedbackMetrics;
+      status.append(' ').append(LOGGER.translate("FEEDBACK_STATUS", currentFeedbackMetrics.getFeedbackCount(), String.join(", ", currentFeedbackMetrics.getStatusCounts()), currentFeedbackMetrics.getPendingCount(), currentFeedbackMetrics.getExpiredCount(), currentFeedbackMetrics.getDeliveryLatencyP50Millis(), currentFeedbackMetrics.getDeliveryLatencyP99Millis()));
+    }
+    return status.toString();
+  }
+
 }
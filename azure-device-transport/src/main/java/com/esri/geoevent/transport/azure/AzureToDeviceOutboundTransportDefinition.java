@@ -50,6 +50,29 @@ public class AzureToDeviceOutboundTransportDefinition extends TransportDefinitio
   public static final String CONNECTION_PROTOCOL_PROPERTY_NAME = "connectionProtocol";
   public static final String DEVICE_ID_GED_NAME_PROPERTY_NAME = "deviceIdGedName";
   public static final String DEVICE_ID_FIELD_NAME_PROPERTY_NAME = "deviceIdFieldName";
+  public static final String ENABLE_SPILL_JOURNAL_PROPERTY_NAME = "enableSpillJournal";
+  public static final String SPILL_DIRECTORY_PROPERTY_NAME = "spillDirectory";
+  public static final String SPILL_MAX_MEGABYTES_PROPERTY_NAME = "spillMaxMegabytes";
+  public static final String SPILL_REPLAY_RATE_PROPERTY_NAME = "spillReplayRate";
+  public static final String ENABLE_SEND_METRICS_PROPERTY_NAME = "enableSendMetrics";
+  public static final String MAX_OUTSTANDING_SENDS_PROPERTY_NAME = "maxOutstandingSends";
+  public static final String MAX_SEND_RETRIES_PROPERTY_NAME = "maxSendRetries";
+  public static final String MAX_SENDS_PER_SECOND_PROPERTY_NAME = "maxSendsPerSecond";
+  public static final String ENABLE_DELIVERY_FEEDBACK_PROPERTY_NAME = "enableDeliveryFeedback";
+  public static final String DELIVERY_FEEDBACK_TIMEOUT_PROPERTY_NAME = "deliveryFeedbackTimeout";
+  public static final String ENABLE_COALESCING_PROPERTY_NAME = "enableCoalescing";
+  public static final String COALESCING_WINDOW_PROPERTY_NAME = "coalescingWindow";
+  public static final String COALESCING_MAX_DEVICES_PROPERTY_NAME = "coalescingMaxDevices";
+
+  // defaults
+  public static final int DEFAULT_SPILL_MAX_MEGABYTES = 1024;
+  public static final int DEFAULT_SPILL_REPLAY_RATE = 100;
+  public static final int DEFAULT_MAX_OUTSTANDING_SENDS = 100;
+  public static final int DEFAULT_MAX_SEND_RETRIES = 3;
+  public static final int DEFAULT_MAX_SENDS_PER_SECOND = 0;
+  public static final int DEFAULT_DELIVERY_FEEDBACK_TIMEOUT = 3600;
+  public static final int DEFAULT_COALESCING_WINDOW = 1000;
+  public static final int DEFAULT_COALESCING_MAX_DEVICES = 100000;
 
   public AzureToDeviceOutboundTransportDefinition() {
     super(TransportType.OUTBOUND);
@@ -62,6 +85,19 @@ public class AzureToDeviceOutboundTransportDefinition extends TransportDefinitio
       propertyDefinitions.put(CONNECTION_PROTOCOL_PROPERTY_NAME, new PropertyDefinition(CONNECTION_PROTOCOL_PROPERTY_NAME, PropertyType.String, DEFAULT_CONNECTION_PROTOCOL, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_PROTOCOL_STR_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_PROTOCOL_STR_DESC}", true, false, protocolAllowedValues));
       propertyDefinitions.put(DEVICE_ID_GED_NAME_PROPERTY_NAME, new PropertyDefinition(DEVICE_ID_GED_NAME_PROPERTY_NAME, PropertyType.GeoEventDefinition, null, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_DEVICE_ID_GED_NAME_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_DEVICE_ID_GED_NAME_DESC}", "iotServiceType=IoT Device", true, false));
       propertyDefinitions.put(DEVICE_ID_FIELD_NAME_PROPERTY_NAME, new PropertyDefinition(DEVICE_ID_FIELD_NAME_PROPERTY_NAME, PropertyType.GeoEventDefinitionField, null, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_DEVICE_ID_FIELD_NAME_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_DEVICE_ID_FIELD_NAME_DESC}", "iotServiceType=IoT Device", true, false));
+      propertyDefinitions.put(ENABLE_SPILL_JOURNAL_PROPERTY_NAME, new PropertyDefinition(ENABLE_SPILL_JOURNAL_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_ENABLE_SPILL_JOURNAL_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_ENABLE_SPILL_JOURNAL_DESC}", false, false));
+      propertyDefinitions.put(SPILL_DIRECTORY_PROPERTY_NAME, new PropertyDefinition(SPILL_DIRECTORY_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_SPILL_DIRECTORY_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_SPILL_DIRECTORY_DESC}", "enableSpillJournal=true", false, false));
+      propertyDefinitions.put(SPILL_MAX_MEGABYTES_PROPERTY_NAME, new PropertyDefinition(SPILL_MAX_MEGABYTES_PROPERTY_NAME, PropertyType.Integer, DEFAULT_SPILL_MAX_MEGABYTES, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_SPILL_MAX_MEGABYTES_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_SPILL_MAX_MEGABYTES_DESC}", "enableSpillJournal=true", false, false));
+      propertyDefinitions.put(SPILL_REPLAY_RATE_PROPERTY_NAME, new PropertyDefinition(SPILL_REPLAY_RATE_PROPERTY_NAME, PropertyType.Integer, DEFAULT_SPILL_REPLAY_RATE, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_SPILL_REPLAY_RATE_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_SPILL_REPLAY_RATE_DESC}", "enableSpillJournal=true", false, false));
+      propertyDefinitions.put(ENABLE_SEND_METRICS_PROPERTY_NAME, new PropertyDefinition(ENABLE_SEND_METRICS_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_ENABLE_SEND_METRICS_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_ENABLE_SEND_METRICS_DESC}", false, false));
+      propertyDefinitions.put(MAX_OUTSTANDING_SENDS_PROPERTY_NAME, new PropertyDefinition(MAX_OUTSTANDING_SENDS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_OUTSTANDING_SENDS, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_MAX_OUTSTANDING_SENDS_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_MAX_OUTSTANDING_SENDS_DESC}", false, false));
+      propertyDefinitions.put(MAX_SEND_RETRIES_PROPERTY_NAME, new PropertyDefinition(MAX_SEND_RETRIES_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_SEND_RETRIES, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_MAX_SEND_RETRIES_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_MAX_SEND_RETRIES_DESC}", false, false));
+      propertyDefinitions.put(MAX_SENDS_PER_SECOND_PROPERTY_NAME, new PropertyDefinition(MAX_SENDS_PER_SECOND_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_SENDS_PER_SECOND, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_MAX_SENDS_PER_SECOND_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_MAX_SENDS_PER_SECOND_DESC}", false, false));
+      propertyDefinitions.put(ENABLE_DELIVERY_FEEDBACK_PROPERTY_NAME, new PropertyDefinition(ENABLE_DELIVERY_FEEDBACK_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_ENABLE_DELIVERY_FEEDBACK_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_ENABLE_DELIVERY_FEEDBACK_DESC}", false, false));
+      propertyDefinitions.put(DELIVERY_FEEDBACK_TIMEOUT_PROPERTY_NAME, new PropertyDefinition(DELIVERY_FEEDBACK_TIMEOUT_PROPERTY_NAME, PropertyType.Integer, DEFAULT_DELIVERY_FEEDBACK_TIMEOUT, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_DELIVERY_FEEDBACK_TIMEOUT_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_DELIVERY_FEEDBACK_TIMEOUT_DESC}", "enableDeliveryFeedback=true", false, false));
+      propertyDefinitions.put(ENABLE_COALESCING_PROPERTY_NAME, new PropertyDefinition(ENABLE_COALESCING_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_ENABLE_COALESCING_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_ENABLE_COALESCING_DESC}", false, false));
+      propertyDefinitions.put(COALESCING_WINDOW_PROPERTY_NAME, new PropertyDefinition(COALESCING_WINDOW_PROPERTY_NAME, PropertyType.Integer, DEFAULT_COALESCING_WINDOW, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_COALESCING_WINDOW_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_COALESCING_WINDOW_DESC}", "enableCoalescing=true", false, false));
+      propertyDefinitions.put(COALESCING_MAX_DEVICES_PROPERTY_NAME, new PropertyDefinition(COALESCING_MAX_DEVICES_PROPERTY_NAME, PropertyType.Integer, DEFAULT_COALESCING_MAX_DEVICES, "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_COALESCING_MAX_DEVICES_LBL}", "${com.esri.geoevent.transport.azure-device-transport.TO_DEVICE_COALESCING_MAX_DEVICES_DESC}", "enableCoalescing=true", false, false));
     } catch (PropertyException error) {
       LOGGER.error("ERROR_LOADING_TRANSPORT_DEFINITION", error);
       throw new RuntimeException(error);
@@ -0,0 +1,262 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.microsoft.azure.sdk.iot.service.Message;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubGatewayTimeoutException;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubInternalServerErrorException;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubServerBusyException;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubTooManyRequestsException;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends cloud-to-device messages with a bounded number of sends outstanding, at a rate within the
+ * hub's quota, retrying transient failures with a randomized backoff. Sends are grouped into
+ * batches, a batch lasting from the first send after an idle period until all of its sends
+ * completed; the outcome of every batch is kept and logged.
+ */
+public class CloudToDeviceDispatcher {
+  // logger
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(CloudToDeviceDispatcher.class);
+
+  public interface Sender {
+    CompletableFuture<Void> send(String deviceId, Message message) throws Exception;
+  }
+
+  private static final long BATCH_IDLE_MILLIS = 1000L;
+  private static final long DRAIN_TIMEOUT_SECONDS = 30L;
+  private static final long MIN_BACKOFF_MILLIS = 200L;
+  private static final long MAX_BACKOFF_MILLIS = 10000L;
+  private static final int MAX_FAILED_DEVICES_REPORTED = 5;
+
+  private final Sender sender;
+  private final int maxOutstanding;
+  private final Semaphore window;
+  private final int maxRetries;
+  private final RateLimiter rateLimiter;
+  private final OutboundMetrics metrics;
+  private final ScheduledExecutorService scheduler;
+  // sends waiting for their next attempt, with the error that made them retry
+  private final Map<CompletableFuture<Void>, Throwable> waitingRetries = new ConcurrentHashMap<>();
+  private volatile boolean closing = false;
+
+  private final AtomicLong completedCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  private Batch currentBatch = null;
+  private volatile Batch lastBatch = null;
+
+  public CloudToDeviceDispatcher(Sender sender, int maxOutstanding, int maxRetries, RateLimiter rateLimiter, OutboundMetrics metrics) {
+    this.sender = sender;
+    this.maxOutstanding = Math.max(1, maxOutstanding);
+    this.window = new Semaphore(this.maxOutstanding);
+    this.maxRetries = Math.max(0, maxRetries);
+    this.rateLimiter = rateLimiter;
+    this.metrics = metrics;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    this.scheduler.scheduleWithFixedDelay(this::closeIdleBatch, BATCH_IDLE_MILLIS, BATCH_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts sending a message, blocking while the maximum number of sends is outstanding. The
+   * returned future completes once the message was delivered or finally failed.
+   */
+  public CompletableFuture<Void> dispatch(String deviceId, Message message) throws InterruptedException {
+    window.acquire();
+    synchronized (this) {
+      if (currentBatch == null)
+        currentBatch = new Batch();
+      currentBatch.messages++;
+      currentBatch.lastDispatchMillis = System.currentTimeMillis();
+    }
+
+    CompletableFuture<Void> completion = new CompletableFuture<>();
+    attempt(deviceId, message, 0, completion);
+    return completion.whenComplete((result, error) -> {
+      synchronized (this) {
+        if (error == null) {
+          currentBatch.delivered++;
+        } else {
+          currentBatch.failed++;
+          if (currentBatch.failedDevices.size() < MAX_FAILED_DEVICES_REPORTED)
+            currentBatch.failedDevices.add(deviceId);
+        }
+      }
+      (error == null ? completedCount : failedCount).incrementAndGet();
+      window.release();
+    });
+  }
+
+  public int getOutstandingCount() {
+    return maxOutstanding - window.availablePermits();
+  }
+
+  public long getCompletedCount() {
+    return completedCount.get();
+  }
+
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  /**
+   * The outcome of the last finished batch as messages, delivered, failed, retried and duration in
+   * milliseconds, or null before the first batch finished.
+   */
+  public long[] getLastBatch() {
+    Batch batch = lastBatch;
+    return (batch != null) ? new long[] {batch.messages, batch.delivered, batch.failed, batch.retried, batch.durationMillis} : null;
+  }
+
+  /**
+   * Waits for the outstanding sends to complete, then stops retrying. Sends still waiting for a
+   * retry after the drain timeout fail with the error they last failed with, so that the caller
+   * can journal or count them.
+   */
+  public void close() {
+    try {
+      if (window.tryAcquire(maxOutstanding, DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        window.release(maxOutstanding);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    closing = true;
+    scheduler.shutdownNow();
+    for (CompletableFuture<Void> completion : waitingRetries.keySet()) {
+      Throwable error = waitingRetries.remove(completion);
+      if (error != null)
+        completion.completeExceptionally(error);
+    }
+    closeIdleBatch();
+  }
+
+  private void attempt(String deviceId, Message message, int attempt, CompletableFuture<Void> completion) {
+    CompletableFuture<Void> future;
+    try {
+      if (rateLimiter != null)
+        rateLimiter.acquire(1);
+      future = sender.send(deviceId, message);
+    } catch (Exception error) {
+      future = new CompletableFuture<>();
+      future.completeExceptionally(error);
+    }
+
+    future.whenComplete((result, error) -> {
+      if (error == null) {
+        completion.complete(null);
+        return;
+      }
+      if (isThrottled(error))
+        metrics.throttled();
+      if (closing || attempt >= maxRetries || !isTransient(error)) {
+        completion.completeExceptionally(unwrap(error));
+        return;
+      }
+
+      metrics.retried();
+      synchronized (this) {
+        currentBatch.retried++;
+      }
+      waitingRetries.put(completion, unwrap(error));
+      try {
+        scheduler.schedule(() -> {
+          // close() may have failed it already
+          if (waitingRetries.remove(completion) != null)
+            attempt(deviceId, message, attempt + 1, completion);
+        }, backoffMillis(attempt), TimeUnit.MILLISECONDS);
+      } catch (Exception rejected) {
+        // shutting down
+        if (waitingRetries.remove(completion) != null)
+          completion.completeExceptionally(unwrap(error));
+      }
+    });
+  }
+
+  private synchronized void closeIdleBatch() {
+    Batch batch = currentBatch;
+    if (batch == null || batch.delivered + batch.failed < batch.messages)
+      return;
+    long now = System.currentTimeMillis();
+    if (now - batch.lastDispatchMillis < BATCH_IDLE_MILLIS && !scheduler.isShutdown())
+      return;
+
+    batch.durationMillis = batch.lastDispatchMillis - batch.startMillis;
+    currentBatch = null;
+    lastBatch = batch;
+    if (batch.failed > 0)
+      LOGGER.warn("C2D_BATCH_FAILED", batch.messages, batch.delivered, batch.failed, batch.retried, String.join(", ", batch.failedDevices));
+    else
+      LOGGER.debug("C2D_BATCH_COMPLETED", batch.messages, batch.retried, batch.durationMillis);
+  }
+
+  static Throwable unwrap(Throwable error) {
+    while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null)
+      error = error.getCause();
+    return error;
+  }
+
+  static boolean isThrottled(Throwable error) {
+    Throwable cause = unwrap(error);
+    return cause instanceof IotHubTooManyRequestsException || cause instanceof IotHubServerBusyException;
+  }
+
+  static boolean isTransient(Throwable error) {
+    Throwable cause = unwrap(error);
+    return isThrottled(cause) || cause instanceof IotHubInternalServerErrorException || cause instanceof IotHubGatewayTimeoutException || cause instanceof IOException || cause instanceof TimeoutException;
+  }
+
+  private static long backoffMillis(int attempt) {
+    long ceiling = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(attempt, 16));
+    return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+  }
+
+  private static final class Batch {
+    private final long startMillis = System.currentTimeMillis();
+    private long lastDispatchMillis;
+    private long durationMillis;
+    private int messages;
+    private int delivered;
+    private int failed;
+    private int retried;
+    private final Set<String> failedDevices = new LinkedHashSet<>();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps only the latest payload per device for a window, so rapid updates of a device end up as
+ * one cloud-to-device message. The waiting payloads are flushed on a timer; when more devices are
+ * waiting than allowed, the device that has waited longest is sent early to make room.
+ */
+public class CommandCoalescer {
+  // logger
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(CommandCoalescer.class);
+
+  public interface Sender {
+    void send(String deviceId, byte[] payload) throws Exception;
+  }
+
+  private final Sender sender;
+  private final int maxDevices;
+  // in the order the devices started waiting, a replaced payload keeps its device's place
+  private final LinkedHashMap<String, byte[]> waiting = new LinkedHashMap<>();
+  private final ScheduledExecutorService flusher;
+
+  private final AtomicLong supersededCount = new AtomicLong();
+  private final AtomicLong evictedCount = new AtomicLong();
+
+  public CommandCoalescer(long windowMillis, int maxDevices, Sender sender) {
+    this.sender = sender;
+    this.maxDevices = Math.max(1, maxDevices);
+    this.flusher = Executors.newSingleThreadScheduledExecutor();
+    long window = Math.max(1L, windowMillis);
+    this.flusher.scheduleWithFixedDelay(this::flush, window, window, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Holds a payload until the next flush, replacing the one still waiting for the same device.
+   */
+  public void offer(String deviceId, byte[] payload) {
+    Map.Entry<String, byte[]> evicted = null;
+    synchronized (waiting) {
+      if (waiting.put(deviceId, payload) != null) {
+        supersededCount.incrementAndGet();
+        return;
+      }
+      // a new device beyond the bound pushes out the oldest one, never itself since it is last in line
+      if (waiting.size() > maxDevices) {
+        Iterator<Map.Entry<String, byte[]>> oldest = waiting.entrySet().iterator();
+        Map.Entry<String, byte[]> entry = oldest.next();
+        evicted = new AbstractMap.SimpleImmutableEntry<>(entry);
+        oldest.remove();
+      }
+    }
+    // sent outside the lock, a send may wait for room in the dispatcher
+    if (evicted != null) {
+      evictedCount.incrementAndGet();
+      send(evicted.getKey(), evicted.getValue());
+    }
+  }
+
+  public long getSupersededCount() {
+    return supersededCount.get();
+  }
+
+  public long getEvictedCount() {
+    return evictedCount.get();
+  }
+
+  public int getWaitingCount() {
+    synchronized (waiting) {
+      return waiting.size();
+    }
+  }
+
+  /**
+   * Stops the timer and sends whatever is still waiting.
+   */
+  public void close() {
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+
+  private void flush() {
+    Map<String, byte[]> flushed;
+    synchronized (waiting) {
+      if (waiting.isEmpty())
+        return;
+      flushed = new LinkedHashMap<>(waiting);
+      waiting.clear();
+    }
+    for (Map.Entry<String, byte[]> entry : flushed.entrySet())
+      send(entry.getKey(), entry.getValue());
+  }
+
+  private void send(String deviceId, byte[] payload) {
+    try {
+      sender.send(deviceId, payload);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception error) {
+      LOGGER.warn("SEND_ERROR", error.toString());
+    }
+  }
+}
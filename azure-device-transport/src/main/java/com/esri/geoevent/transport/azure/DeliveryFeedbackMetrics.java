@@ -0,0 +1,231 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the delivery feedback of the cloud-to-device messages of one connector: how long
+ * devices took to complete their messages and how many were completed, rejected or expired.
+ * Updated by the feedback consumer of the hub, read over JMX and by the status details.
+ */
+public class DeliveryFeedbackMetrics implements DeliveryFeedbackMetricsMBean {
+  // logger
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(DeliveryFeedbackMetrics.class);
+
+  private static final String METRICS_DOMAIN = "com.esri.geoevent.transport.azure";
+  private static final String METRICS_TYPE = "IoTCloudToDeviceFeedback";
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
+  // upper bounds of the latency buckets, devices can be offline for a long time
+  private static final long[] HISTOGRAM_BOUNDS_MILLIS = {100L, 200L, 500L, 1000L, 2000L, 5000L, 10000L, 30000L, 60000L, 120000L, 300000L, 600000L, 1800000L, 3600000L};
+
+  private final String target;
+  private ObjectName registeredName = null;
+
+  private final AtomicLong pendingCount = new AtomicLong();
+  private final AtomicLong feedbackCount = new AtomicLong();
+  private final AtomicLong untrackedCount = new AtomicLong();
+  private final AtomicLong expiredCount = new AtomicLong();
+  private final ConcurrentHashMap<String, AtomicLong> statusCounts = new ConcurrentHashMap<>();
+  private final AtomicLong latencyTotalMillis = new AtomicLong();
+  private volatile long latencyMaxMillis = 0L;
+  private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BOUNDS_MILLIS.length + 1);
+
+  public DeliveryFeedbackMetrics(String target) {
+    this.target = (target != null) ? target : "";
+  }
+
+  void tracked() {
+    pendingCount.incrementAndGet();
+  }
+
+  /**
+   * A message was sent without being tracked, because too many messages wait for feedback.
+   */
+  void untracked() {
+    untrackedCount.incrementAndGet();
+  }
+
+  /**
+   * A tracked message will not get any feedback, e.g. because it could not be sent.
+   */
+  void forgotten() {
+    pendingCount.decrementAndGet();
+  }
+
+  /**
+   * No feedback arrived for a tracked message within the tracking timeout.
+   */
+  void expired() {
+    pendingCount.decrementAndGet();
+    expiredCount.incrementAndGet();
+  }
+
+  void feedback(String status, long latencyMillis) {
+    pendingCount.decrementAndGet();
+    feedbackCount.incrementAndGet();
+    statusCounts.computeIfAbsent(status, code -> new AtomicLong()).incrementAndGet();
+    latencyTotalMillis.addAndGet(latencyMillis);
+    if (latencyMillis > latencyMaxMillis)
+      latencyMaxMillis = latencyMillis;
+    histogram.incrementAndGet(bucketFor(latencyMillis));
+  }
+
+  /**
+   * Publishes the metrics on the platform MBean server, a failure is logged and otherwise ignored.
+   */
+  public synchronized void register() {
+    if (registeredName != null)
+      return;
+    try {
+      ObjectName name = new ObjectName(METRICS_DOMAIN + ":type=" + METRICS_TYPE + ",target=" + ObjectName.quote(target) + ",instance=" + INSTANCES.incrementAndGet());
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      registeredName = name;
+    } catch (Exception e) {
+      LOGGER.warn("SEND_METRICS_REGISTRATION_ERROR", target, e.toString());
+    }
+  }
+
+  public synchronized void unregister() {
+    if (registeredName == null)
+      return;
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+    } catch (Exception ignored) {
+    } finally {
+      registeredName = null;
+    }
+  }
+
+  @Override
+  public String getTarget() {
+    return target;
+  }
+
+  @Override
+  public long getFeedbackCount() {
+    return feedbackCount.get();
+  }
+
+  @Override
+  public long getPendingCount() {
+    return Math.max(0L, pendingCount.get());
+  }
+
+  @Override
+  public long getUntrackedCount() {
+    return untrackedCount.get();
+  }
+
+  @Override
+  public long getExpiredCount() {
+    return expiredCount.get();
+  }
+
+  @Override
+  public double getDeliveryLatencyAverageMillis() {
+    long count = feedbackCount.get();
+    return (count > 0L) ? latencyTotalMillis.get() / (double) count : 0.0;
+  }
+
+  @Override
+  public long getDeliveryLatencyMaxMillis() {
+    return latencyMaxMillis;
+  }
+
+  @Override
+  public long getDeliveryLatencyP50Millis() {
+    return percentile(0.5);
+  }
+
+  @Override
+  public long getDeliveryLatencyP99Millis() {
+    return percentile(0.99);
+  }
+
+  @Override
+  public long[] getDeliveryLatencyHistogramBoundsMillis() {
+    return HISTOGRAM_BOUNDS_MILLIS.clone();
+  }
+
+  @Override
+  public long[] getDeliveryLatencyHistogramCounts() {
+    long[] counts = new long[histogram.length()];
+    for (int i = 0; i < counts.length; i++)
+      counts[i] = histogram.get(i);
+    return counts;
+  }
+
+  @Override
+  public String[] getStatusCounts() {
+    Map<String, AtomicLong> sorted = new TreeMap<>(statusCounts);
+    String[] counts = new String[sorted.size()];
+    int i = 0;
+    for (Map.Entry<String, AtomicLong> entry : sorted.entrySet())
+      counts[i++] = entry.getKey() + "=" + entry.getValue().get();
+    return counts;
+  }
+
+  /**
+   * The upper bound of the bucket the given share of all messages was completed within, or the
+   * maximum latency for messages beyond the last bucket.
+   */
+  private long percentile(double quantile) {
+    long[] counts = getDeliveryLatencyHistogramCounts();
+    long total = 0L;
+    for (long count : counts)
+      total += count;
+    if (total == 0L)
+      return 0L;
+
+    long rank = (long) Math.ceil(quantile * total);
+    long cumulative = 0L;
+    for (int i = 0; i < HISTOGRAM_BOUNDS_MILLIS.length; i++) {
+      cumulative += counts[i];
+      if (cumulative >= rank)
+        return HISTOGRAM_BOUNDS_MILLIS[i];
+    }
+    return latencyMaxMillis;
+  }
+
+  private static int bucketFor(long millis) {
+    for (int i = 0; i < HISTOGRAM_BOUNDS_MILLIS.length; i++) {
+      if (millis < HISTOGRAM_BOUNDS_MILLIS[i])
+        return i;
+    }
+    return HISTOGRAM_BOUNDS_MILLIS.length;
+  }
+}
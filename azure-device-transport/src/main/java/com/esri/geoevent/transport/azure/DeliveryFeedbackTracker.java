@@ -0,0 +1,208 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.microsoft.azure.sdk.iot.service.FeedbackBatch;
+import com.microsoft.azure.sdk.iot.service.FeedbackReceiver;
+import com.microsoft.azure.sdk.iot.service.FeedbackRecord;
+import com.microsoft.azure.sdk.iot.service.ServiceClient;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumes the delivery feedback of an IoT Hub on a background thread and matches it by message
+ * id against the messages sent since. The send path only adds a table entry per message; messages
+ * without feedback within the tracking timeout are evicted and counted as expired.
+ */
+public class DeliveryFeedbackTracker {
+  // logger
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(DeliveryFeedbackTracker.class);
+
+  private static final long RECEIVE_TIMEOUT_MILLIS = 5000L;
+  private static final long EVICTION_INTERVAL_MILLIS = 10000L;
+  private static final long MIN_RETRY_MILLIS = 1000L;
+  private static final long MAX_RETRY_MILLIS = 60000L;
+  private static final int MAX_PENDING = 100000;
+  // the receiver reads the feedback queue of the whole hub, whatever device id it is created with
+  private static final String FEEDBACK_RECEIVER_DEVICE_ID = "geoevent";
+
+  private final ServiceClient client;
+  private final String hubName;
+  private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+  private volatile long timeoutMillis;
+  private volatile boolean running = false;
+  private Thread consumer = null;
+  private long lastEvictionMillis = System.currentTimeMillis();
+
+  public DeliveryFeedbackTracker(ServiceClient client, String hubName, long timeoutMillis) {
+    this.client = client;
+    this.hubName = hubName;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  public void setTimeoutMillis(long timeoutMillis) {
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  public synchronized void open() {
+    if (running)
+      return;
+    running = true;
+    consumer = new Thread(this::consume, "azure-c2d-feedback-" + hubName);
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  public synchronized void close() {
+    running = false;
+    if (consumer != null) {
+      try {
+        consumer.join(RECEIVE_TIMEOUT_MILLIS * 2);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      consumer = null;
+    }
+    for (Pending message : pending.values())
+      message.metrics.forgotten();
+    pending.clear();
+  }
+
+  /**
+   * Starts tracking a message, returning the message id to send it with, or null when too many
+   * messages are waiting for feedback already.
+   */
+  public String track(DeliveryFeedbackMetrics metrics) {
+    if (pending.size() >= MAX_PENDING) {
+      metrics.untracked();
+      return null;
+    }
+    String messageId = UUID.randomUUID().toString();
+    pending.put(messageId, new Pending(metrics));
+    metrics.tracked();
+    return messageId;
+  }
+
+  /**
+   * Stops tracking a message that will not get any feedback, because it was never sent.
+   */
+  public void forget(String messageId) {
+    Pending message = pending.remove(messageId);
+    if (message != null)
+      message.metrics.forgotten();
+  }
+
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  private void consume() {
+    FeedbackReceiver receiver = null;
+    long retryMillis = MIN_RETRY_MILLIS;
+    while (running) {
+      try {
+        if (receiver == null) {
+          receiver = client.getFeedbackReceiver(FEEDBACK_RECEIVER_DEVICE_ID);
+          receiver.open();
+        }
+        FeedbackBatch batch = receiver.receive(RECEIVE_TIMEOUT_MILLIS);
+        if (batch != null && batch.getRecords() != null) {
+          for (FeedbackRecord record : batch.getRecords())
+            matched(record);
+        }
+        retryMillis = MIN_RETRY_MILLIS;
+      } catch (Exception error) {
+        if (!running)
+          break;
+        LOGGER.warn("FEEDBACK_RECEIVE_ERROR", hubName, error.toString());
+        close(receiver);
+        receiver = null;
+        try {
+          TimeUnit.MILLISECONDS.sleep(retryMillis);
+        } catch (InterruptedException e) {
+          break;
+        }
+        retryMillis = Math.min(MAX_RETRY_MILLIS, retryMillis * 2);
+      }
+      evictExpired();
+    }
+    close(receiver);
+  }
+
+  private void matched(FeedbackRecord record) {
+    // feedback of messages sent by others, or evicted already
+    Pending message = (record.getOriginalMessageId() != null) ? pending.remove(record.getOriginalMessageId()) : null;
+    if (message == null)
+      return;
+
+    // the time the device completed the message, unless the record does not tell
+    Instant enqueued = record.getEnqueuedTimeUtc();
+    long completedMillis = (enqueued != null) ? enqueued.toEpochMilli() : System.currentTimeMillis();
+    String status = (record.getStatusCode() != null) ? record.getStatusCode().name() : "unknown";
+    message.metrics.feedback(status, Math.max(0L, completedMillis - message.sentMillis));
+  }
+
+  private void evictExpired() {
+    long now = System.currentTimeMillis();
+    if (now - lastEvictionMillis < EVICTION_INTERVAL_MILLIS)
+      return;
+    lastEvictionMillis = now;
+
+    long oldest = now - timeoutMillis;
+    Iterator<Map.Entry<String, Pending>> iterator = pending.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Pending> entry = iterator.next();
+      if (entry.getValue().sentMillis < oldest && pending.remove(entry.getKey(), entry.getValue()))
+        entry.getValue().metrics.expired();
+    }
+  }
+
+  private static void close(FeedbackReceiver receiver) {
+    if (receiver != null) {
+      try {
+        receiver.close();
+      } catch (Exception error) {
+        // ignored
+      }
+    }
+  }
+
+  private static final class Pending {
+    private final DeliveryFeedbackMetrics metrics;
+    private final long sentMillis = System.currentTimeMillis();
+
+    Pending(DeliveryFeedbackMetrics metrics) {
+      this.metrics = metrics;
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.esri.ges.util.Validator;
+import com.microsoft.azure.sdk.iot.device.DeviceClient;
+import com.microsoft.azure.sdk.iot.device.IotHubClientProtocol;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Device clients of many devices of one IoT Hub, opened on first use and kept in least recently
+ * used order. Beyond the maximum, the least recently used client is closed; clients idle for too
+ * long or whose token is about to expire are closed in the background.
+ * <p>
+ * A connection string with a shared access policy of the hub signs a token for every device,
+ * otherwise each device has to bring its own shared access signature. Every client holds its own
+ * connection, this version of the device SDK cannot multiplex devices over one connection.
+ */
+public class DeviceClientPool {
+  // logger
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(DeviceClientPool.class);
+
+  private static final long TOKEN_LIFETIME_SECONDS = 3600L;
+  // clients are replaced this long before their token expires
+  private static final long TOKEN_RENEWAL_MARGIN_MILLIS = 300000L;
+  private static final long MAX_HOUSEKEEPING_INTERVAL_MILLIS = 30000L;
+  private static final int MAX_REMEMBERED_TOKENS = 100000;
+
+  private final String hostName;
+  private final String policyName;
+  private final byte[] policyKey;
+  private final IotHubClientProtocol protocol;
+  private final int maxClients;
+  private final long idleTimeoutMillis;
+  private final LinkedHashMap<String, PooledClient> clients = new LinkedHashMap<>(16, 0.75f, true);
+  // the latest signature of each device, to reopen clients for journaled events
+  private final ConcurrentHashMap<String, String> deviceTokens = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService housekeeper;
+
+  private final AtomicLong openedCount = new AtomicLong();
+  private final AtomicLong idleClosedCount = new AtomicLong();
+  private final AtomicLong evictedCount = new AtomicLong();
+
+  public DeviceClientPool(String connectionString, IotHubClientProtocol protocol, int maxClients, long idleTimeoutMillis) {
+    this.hostName = OutboundMetrics.connectionStringValue(connectionString, "HostName");
+    String keyName = OutboundMetrics.connectionStringValue(connectionString, "SharedAccessKeyName");
+    String key = OutboundMetrics.connectionStringValue(connectionString, "SharedAccessKey");
+    this.policyName = Validator.isNotBlank(keyName) ? keyName : null;
+    this.policyKey = Validator.isNotBlank(key) ? Base64.getDecoder().decode(key) : null;
+    this.protocol = protocol;
+    this.maxClients = Math.max(1, maxClients);
+    this.idleTimeoutMillis = Math.max(1000L, idleTimeoutMillis);
+    this.housekeeper = Executors.newSingleThreadScheduledExecutor();
+    long interval = Math.min(MAX_HOUSEKEEPING_INTERVAL_MILLIS, this.idleTimeoutMillis / 2);
+    this.housekeeper.scheduleWithFixedDelay(this::closeIdleClients, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * The open client of a device, opening one when needed. A device signature differing from the
+   * one its client was opened with replaces the client.
+   */
+  public DeviceClient get(String deviceId, String sasToken) throws IOException, URISyntaxException {
+    if (sasToken != null)
+      rememberToken(deviceId, sasToken);
+    else if (policyKey == null)
+      sasToken = deviceTokens.get(deviceId);
+
+    long now = System.currentTimeMillis();
+    PooledClient stale = null;
+    synchronized (clients) {
+      PooledClient pooled = clients.get(deviceId);
+      if (pooled != null && pooled.isUsable(sasToken, now)) {
+        pooled.lastUsedMillis = now;
+        return pooled.client;
+      }
+      if (pooled != null)
+        stale = clients.remove(deviceId);
+    }
+    retire(stale);
+
+    // opened outside of the lock, other devices keep sending meanwhile
+    PooledClient created = open(deviceId, sasToken, now);
+    List<PooledClient> retired = new ArrayList<>();
+    DeviceClient client;
+    synchronized (clients) {
+      PooledClient raced = clients.get(deviceId);
+      if (raced != null && raced.isUsable(sasToken, now)) {
+        retired.add(created);
+        client = raced.client;
+      } else {
+        if (raced != null)
+          retired.add(raced);
+        clients.put(deviceId, created);
+        client = created.client;
+        Iterator<PooledClient> leastRecentlyUsed = clients.values().iterator();
+        while (clients.size() > maxClients && leastRecentlyUsed.hasNext()) {
+          retired.add(leastRecentlyUsed.next());
+          leastRecentlyUsed.remove();
+          evictedCount.incrementAndGet();
+        }
+      }
+    }
+    for (PooledClient pooled : retired)
+      retire(pooled);
+    return client;
+  }
+
+  public int getOpenCount() {
+    synchronized (clients) {
+      return clients.size();
+    }
+  }
+
+  public long getOpenedCount() {
+    return openedCount.get();
+  }
+
+  public long getIdleClosedCount() {
+    return idleClosedCount.get();
+  }
+
+  public long getEvictedCount() {
+    return evictedCount.get();
+  }
+
+  public void close() {
+    housekeeper.shutdownNow();
+    List<PooledClient> open;
+    synchronized (clients) {
+      open = new ArrayList<>(clients.values());
+      clients.clear();
+    }
+    for (PooledClient pooled : open)
+      closeQuietly(pooled.client);
+    deviceTokens.clear();
+  }
+
+  private PooledClient open(String deviceId, String sasToken, long now) throws IOException, URISyntaxException {
+    long expiresMillis;
+    if (policyKey != null) {
+      long expirySeconds = TimeUnit.MILLISECONDS.toSeconds(now) + TOKEN_LIFETIME_SECONDS;
+      sasToken = sign(deviceId, expirySeconds);
+      expiresMillis = TimeUnit.SECONDS.toMillis(expirySeconds);
+    } else if (sasToken != null) {
+      expiresMillis = expiryOf(sasToken);
+    } else {
+      throw new IOException(LOGGER.translate("DEVICE_SAS_MISSING", deviceId));
+    }
+
+    String deviceConnectionString = "HostName=" + hostName + ";DeviceId=" + deviceId + ";SharedAccessSignature=" + sasToken;
+    DeviceClient client = new DeviceClient(deviceConnectionString, protocol);
+    client.open();
+    openedCount.incrementAndGet();
+    return new PooledClient(client, (policyKey != null) ? null : sasToken, expiresMillis - TOKEN_RENEWAL_MARGIN_MILLIS, now);
+  }
+
+  private void closeIdleClients() {
+    long now = System.currentTimeMillis();
+    List<PooledClient> idle = new ArrayList<>();
+    synchronized (clients) {
+      Iterator<PooledClient> iterator = clients.values().iterator();
+      while (iterator.hasNext()) {
+        PooledClient pooled = iterator.next();
+        if (now - pooled.lastUsedMillis >= idleTimeoutMillis || now >= pooled.renewAtMillis) {
+          idle.add(pooled);
+          iterator.remove();
+        }
+      }
+    }
+    idleClosedCount.addAndGet(idle.size());
+    for (PooledClient pooled : idle)
+      closeQuietly(pooled.client);
+  }
+
+  /**
+   * Closes a client in the background, closing waits for its messages in flight.
+   */
+  private void retire(PooledClient pooled) {
+    if (pooled == null)
+      return;
+    try {
+      housekeeper.execute(() -> closeQuietly(pooled.client));
+    } catch (Exception rejected) {
+      // shutting down
+      closeQuietly(pooled.client);
+    }
+  }
+
+  private void rememberToken(String deviceId, String sasToken) {
+    if (deviceTokens.size() >= MAX_REMEMBERED_TOKENS && !deviceTokens.containsKey(deviceId))
+      deviceTokens.clear();
+    deviceTokens.put(deviceId, sasToken);
+  }
+
+  /**
+   * Signs a device token with the shared access policy of the hub.
+   */
+  private String sign(String deviceId, long expirySeconds) throws IOException {
+    try {
+      String resource = URLEncoder.encode(hostName + "/devices/" + deviceId, "UTF-8");
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(policyKey, "HmacSHA256"));
+      String signature = Base64.getEncoder().encodeToString(mac.doFinal((resource + "\n" + expirySeconds).getBytes(StandardCharsets.UTF_8)));
+      return "SharedAccessSignature sr=" + resource + "&sig=" + URLEncoder.encode(signature, "UTF-8") + "&se=" + expirySeconds + "&skn=" + URLEncoder.encode(policyName, "UTF-8");
+    } catch (GeneralSecurityException | UnsupportedEncodingException error) {
+      throw new IOException(error.getMessage(), error);
+    }
+  }
+
+  /**
+   * The expiry of a shared access signature, or never when it cannot be told.
+   */
+  private static long expiryOf(String sasToken) {
+    for (String parameter : sasToken.substring(sasToken.indexOf(' ') + 1).split("&")) {
+      if (parameter.startsWith("se=")) {
+        try {
+          return TimeUnit.SECONDS.toMillis(Long.parseLong(parameter.substring(3).trim()));
+        } catch (NumberFormatException e) {
+          break;
+        }
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  private static void closeQuietly(DeviceClient client) {
+    try {
+      client.close();
+    } catch (Exception error) {
+      // ignored
+    }
+  }
+
+  private static final class PooledClient {
+    private final DeviceClient client;
+    private final String sasToken;
+    private final long renewAtMillis;
+    private volatile long lastUsedMillis;
+
+    PooledClient(DeviceClient client, String sasToken, long renewAtMillis, long now) {
+      this.client = client;
+      this.sasToken = sasToken;
+      this.renewAtMillis = renewAtMillis;
+      this.lastUsedMillis = now;
+    }
+
+    boolean isUsable(String token, long now) {
+      return now < renewAtMillis && (sasToken == null || token == null || sasToken.equals(token));
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.core.geoevent.GeoEventDefinition;
+import com.esri.ges.util.Validator;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Looks up the device id of events. The device id field is resolved to its index once per
+ * GeoEvent Definition, definitions other than the configured one are remembered as such and
+ * skipped right away. Device ids that are not text are converted once and reused.
+ */
+public class DeviceIdResolver {
+  public static final int NO_FIELD = -1;
+  public static final int OTHER_DEFINITION = -2;
+
+  private static final int MAX_CACHED_DEVICE_IDS = 100000;
+
+  private final String definitionName;
+  private final String fieldName;
+  private final ConcurrentHashMap<String, FieldIndex> indices = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Object, String> deviceIds = new ConcurrentHashMap<>();
+
+  public DeviceIdResolver(String definitionName, String fieldName) {
+    this.definitionName = Validator.isNotBlank(definitionName) ? definitionName : null;
+    this.fieldName = fieldName;
+  }
+
+  /**
+   * The index of the device id field in events of the given definition, {@link #NO_FIELD} when
+   * the definition lacks it or {@link #OTHER_DEFINITION} when events of the definition are not
+   * sent to devices.
+   */
+  public int indexOf(GeoEventDefinition definition) {
+    if (definition == null)
+      return NO_FIELD;
+    String guid = definition.getGuid();
+    FieldIndex cached = (guid != null) ? indices.get(guid) : null;
+    // a definition changed under the same GUID is a new instance
+    if (cached != null && cached.definition == definition)
+      return cached.index;
+
+    int index;
+    if (definitionName != null && !definitionName.equals(definition.getName()))
+      index = OTHER_DEFINITION;
+    else
+      index = (fieldName != null) ? Math.max(NO_FIELD, definition.getIndexOf(fieldName)) : NO_FIELD;
+    if (guid != null)
+      indices.put(guid, new FieldIndex(definition, index));
+    return index;
+  }
+
+  /**
+   * The device id held by a field value, or null when it is empty.
+   */
+  public String deviceIdOf(Object value) {
+    if (value == null)
+      return null;
+    if (value instanceof String)
+      return Validator.isNotBlank((String) value) ? (String) value : null;
+
+    String deviceId = deviceIds.get(value);
+    if (deviceId == null) {
+      deviceId = value.toString();
+      if (Validator.isNotBlank(deviceId)) {
+        // a simple bound, the ids of a fleet are cached again right away
+        if (deviceIds.size() >= MAX_CACHED_DEVICE_IDS)
+          deviceIds.clear();
+        deviceIds.put(value, deviceId);
+      } else {
+        deviceId = null;
+      }
+    }
+    return deviceId;
+  }
+
+  private static final class FieldIndex {
+    private final GeoEventDefinition definition;
+    private final int index;
+
+    FieldIndex(GeoEventDefinition definition, int index) {
+      this.definition = definition;
+      this.index = index;
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packs the payloads of several events into one device-to-cloud message, either as the elements
+ * of a JSON array or as newline-delimited lines. A message is sent once it reaches the byte
+ * threshold or once its first payload has waited for the linger time. Events are packed per
+ * device, a payload larger than the threshold is sent as a pack of its own.
+ */
+public class MessagePacker {
+  // message property telling consumers how to unpack the body, and how many events it holds
+  public static final String FORMAT_PROPERTY = "geoevent-packing";
+  public static final String COUNT_PROPERTY = "geoevent-count";
+  public static final String FORMAT_JSON_ARRAY = "json-array";
+  public static final String FORMAT_NEWLINE_DELIMITED = "ndjson";
+
+  private static final long CLOSE_TIMEOUT_SECONDS = 60L;
+
+  public interface Sender {
+    void send(String deviceId, String sasToken, byte[] payload, String format, int count);
+  }
+
+  private final boolean jsonArray;
+  private final String format;
+  private final int maxBytes;
+  private final long lingerMillis;
+  private final Sender sender;
+  private final Map<String, Pack> packs = new HashMap<>();
+  private final ScheduledThreadPoolExecutor lingerTimer;
+
+  public MessagePacker(String format, int maxBytes, long lingerMillis, Sender sender) {
+    this.jsonArray = FORMAT_JSON_ARRAY.equals(format);
+    this.format = jsonArray ? FORMAT_JSON_ARRAY : FORMAT_NEWLINE_DELIMITED;
+    this.maxBytes = Math.max(1, maxBytes);
+    this.lingerMillis = Math.max(1L, lingerMillis);
+    this.sender = sender;
+    this.lingerTimer = new ScheduledThreadPoolExecutor(1);
+    // packs still lingering at close are sent by close() itself
+    this.lingerTimer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  /**
+   * Adds the payload of an event to the pack of its device, sending the pack when it is full.
+   */
+  public void add(String deviceId, String sasToken, byte[] payload) {
+    int length = trimmedLength(payload);
+    List<Pack> ready = new ArrayList<>(2);
+    synchronized (packs) {
+      Pack pack = packs.get(deviceId);
+      // the closing bracket of a JSON array counts as well
+      if (pack != null && pack.size() + 1 + length + (jsonArray ? 1 : 0) > maxBytes) {
+        ready.add(packs.remove(deviceId));
+        pack = null;
+      }
+      if (pack == null) {
+        Pack newPack = new Pack(deviceId);
+        packs.put(deviceId, newPack);
+        pack = newPack;
+        try {
+          lingerTimer.schedule(() -> linger(newPack), lingerMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception rejected) {
+          // shutting down, the pack is flushed on close
+        }
+      }
+      pack.append(payload, length, sasToken);
+      if (pack.size() + (jsonArray ? 1 : 0) >= maxBytes)
+        ready.add(packs.remove(deviceId));
+    }
+    for (Pack pack : ready)
+      send(pack);
+  }
+
+  /**
+   * Stops the linger timer and sends the packs still open. A linger send already under way is
+   * let finish rather than interrupted, since an interrupted send sheds its pack.
+   */
+  public void close() {
+    lingerTimer.shutdown();
+    try {
+      if (!lingerTimer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        lingerTimer.shutdownNow();
+    } catch (InterruptedException e) {
+      lingerTimer.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    List<Pack> open;
+    synchronized (packs) {
+      open = new ArrayList<>(packs.values());
+      packs.clear();
+    }
+    for (Pack pack : open)
+      send(pack);
+  }
+
+  private void linger(Pack pack) {
+    synchronized (packs) {
+      // sent already when it filled up
+      if (packs.get(pack.deviceId) != pack)
+        return;
+      packs.remove(pack.deviceId);
+    }
+    send(pack);
+  }
+
+  private void send(Pack pack) {
+    if (jsonArray)
+      pack.bytes.write(']');
+    sender.send(pack.deviceId, pack.sasToken, pack.bytes.toByteArray(), format, pack.count);
+  }
+
+  /**
+   * The payload length without trailing line breaks and white space, which adapters commonly
+   * add and which would break the packing format.
+   */
+  private static int trimmedLength(byte[] payload) {
+    int length = payload.length;
+    while (length > 0 && (payload[length - 1] == '\n' || payload[length - 1] == '\r' || payload[length - 1] == ' ' || payload[length - 1] == '\t'))
+      length--;
+    return length;
+  }
+
+  private final class Pack {
+    private final String deviceId;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(maxBytes, 64 * 1024) + 2);
+    private String sasToken;
+    private int count;
+
+    Pack(String deviceId) {
+      this.deviceId = deviceId;
+    }
+
+    int size() {
+      return bytes.size();
+    }
+
+    void append(byte[] payload, int length, String token) {
+      if (jsonArray)
+        bytes.write(count == 0 ? '[' : ',');
+      bytes.write(payload, 0, length);
+      if (!jsonArray)
+        bytes.write('\n');
+      if (token != null)
+        sasToken = token;
+      count++;
+    }
+  }
+}
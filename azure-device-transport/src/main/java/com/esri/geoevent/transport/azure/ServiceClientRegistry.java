@@ -0,0 +1,187 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+import com.microsoft.azure.sdk.iot.service.IotHubServiceClientProtocol;
+import com.microsoft.azure.sdk.iot.service.ServiceClient;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares IoT Hub service clients between the to-device connectors of the JVM. Connectors writing
+ * to the same hub with the same protocol lease one open client, which is closed when the last
+ * lease is released. Opening or closing the client of one hub never blocks connectors of another.
+ * The connectors of a hub also share one rate limiter, since the cloud-to-device quota applies to
+ * the hub as a whole, and one consumer of the hub's delivery feedback queue.
+ */
+public class ServiceClientRegistry {
+  private static final ConcurrentHashMap<Key, Entry> CLIENTS = new ConcurrentHashMap<>();
+
+  private ServiceClientRegistry() {
+  }
+
+  /**
+   * Leases the client of a hub, creating and opening it when it is not in use yet.
+   */
+  public static Lease acquire(String connectionString, IotHubServiceClientProtocol protocol) throws IOException {
+    Key key = new Key(connectionString, protocol);
+    while (true) {
+      Entry entry = CLIENTS.computeIfAbsent(key, k -> new Entry());
+      synchronized (entry) {
+        // released by its last user meanwhile, start over with a fresh entry
+        if (entry.removed)
+          continue;
+
+        if (entry.client == null) {
+          try {
+            ServiceClient client = ServiceClient.createFromConnectionString(connectionString, protocol);
+            client.open();
+            entry.client = client;
+          } catch (IOException | RuntimeException error) {
+            entry.removed = true;
+            CLIENTS.remove(key, entry);
+            throw error;
+          }
+        }
+        entry.references++;
+        return new Lease(key, entry);
+      }
+    }
+  }
+
+  private static void release(Key key, Entry entry) {
+    ServiceClient client;
+    DeliveryFeedbackTracker feedbackTracker;
+    synchronized (entry) {
+      if (--entry.references > 0)
+        return;
+      entry.removed = true;
+      CLIENTS.remove(key, entry);
+      client = entry.client;
+      entry.client = null;
+      feedbackTracker = entry.feedbackTracker;
+      entry.feedbackTracker = null;
+    }
+    // closed outside of the lock, a new lease of the same hub gets a new client right away
+    if (feedbackTracker != null)
+      feedbackTracker.close();
+    if (client != null) {
+      try {
+        client.close();
+      } catch (Exception error) {
+        // ignored
+      }
+    }
+  }
+
+  /**
+   * A connector's share of a client, released exactly once.
+   */
+  public static final class Lease {
+    private final Key key;
+    private final Entry entry;
+    private final ServiceClient client;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Lease(Key key, Entry entry) {
+      this.key = key;
+      this.entry = entry;
+      this.client = entry.client;
+    }
+
+    public ServiceClient getClient() {
+      return client;
+    }
+
+    /**
+     * The send rate limiter of the hub, set to the given rate. The connector leasing last decides
+     * the rate of all connectors of the hub.
+     */
+    public RateLimiter getRateLimiter(int permitsPerSecond) {
+      synchronized (entry) {
+        if (entry.rateLimiter == null)
+          entry.rateLimiter = new RateLimiter(permitsPerSecond);
+        else
+          entry.rateLimiter.setPermitsPerSecond(permitsPerSecond);
+        return entry.rateLimiter;
+      }
+    }
+
+    /**
+     * The running delivery feedback consumer of the hub, tracking messages for the given time.
+     */
+    public DeliveryFeedbackTracker getFeedbackTracker(long timeoutMillis) {
+      synchronized (entry) {
+        if (entry.feedbackTracker == null) {
+          entry.feedbackTracker = new DeliveryFeedbackTracker(client, OutboundMetrics.connectionStringValue(key.connectionString, "HostName"), timeoutMillis);
+          entry.feedbackTracker.open();
+        } else {
+          entry.feedbackTracker.setTimeoutMillis(timeoutMillis);
+        }
+        return entry.feedbackTracker;
+      }
+    }
+
+    public void release() {
+      if (released.compareAndSet(false, true))
+        ServiceClientRegistry.release(key, entry);
+    }
+  }
+
+  private static final class Entry {
+    private ServiceClient client;
+    private RateLimiter rateLimiter;
+    private DeliveryFeedbackTracker feedbackTracker;
+    private int references;
+    private boolean removed;
+  }
+
+  private static final class Key {
+    private final String connectionString;
+    private final IotHubServiceClientProtocol protocol;
+
+    Key(String connectionString, IotHubServiceClientProtocol protocol) {
+      this.connectionString = connectionString;
+      this.protocol = protocol;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key))
+        return false;
+      Key that = (Key) other;
+      return Objects.equals(connectionString, that.connectionString) && protocol == that.protocol;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(connectionString, protocol);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CommandCoalescerTest {
+  // long enough for the timer never to flush during a test
+  private static final long NO_FLUSH_MILLIS = 60000L;
+
+  private final List<String> sent = new CopyOnWriteArrayList<>();
+
+  @Test
+  public void onlyTheLatestPayloadOfADeviceIsSent() {
+    CommandCoalescer coalescer = new CommandCoalescer(NO_FLUSH_MILLIS, 10, this::record);
+    coalescer.offer("a", payload(1));
+    coalescer.offer("a", payload(2));
+    coalescer.offer("b", payload(1));
+    assertEquals(2, coalescer.getWaitingCount());
+    coalescer.close();
+
+    assertEquals(Arrays.asList("a:2", "b:1"), sent);
+    assertEquals(1L, coalescer.getSupersededCount());
+  }
+
+  @Test
+  public void fullCoalescerSendsTheLongestWaitingDeviceFirst() {
+    CommandCoalescer coalescer = new CommandCoalescer(NO_FLUSH_MILLIS, 2, this::record);
+    coalescer.offer("a", payload(1));
+    coalescer.offer("b", payload(1));
+    coalescer.offer("c", payload(1));
+    assertEquals(Arrays.asList("a:1"), sent);
+
+    coalescer.offer("a", payload(2));
+    assertEquals(Arrays.asList("a:1", "b:1"), sent);
+
+    coalescer.close();
+    assertEquals(Arrays.asList("a:1", "b:1", "c:1", "a:2"), sent);
+    assertEquals(2L, coalescer.getEvictedCount());
+  }
+
+  @Test
+  public void replacedPayloadKeepsTheDevicesPlaceInLine() {
+    CommandCoalescer coalescer = new CommandCoalescer(NO_FLUSH_MILLIS, 2, this::record);
+    coalescer.offer("a", payload(1));
+    coalescer.offer("b", payload(1));
+    coalescer.offer("a", payload(2));
+    coalescer.offer("c", payload(1));
+    assertEquals(Arrays.asList("a:2"), sent);
+
+    coalescer.close();
+    assertEquals(Arrays.asList("a:2", "b:1", "c:1"), sent);
+  }
+
+  @Test
+  public void windowFlushesTheWaitingPayloads() throws Exception {
+    BlockingQueue<String> flushed = new LinkedBlockingQueue<>();
+    CommandCoalescer coalescer = new CommandCoalescer(20L, 10, (deviceId, payload) -> flushed.add(deviceId + ":" + new String(payload, StandardCharsets.UTF_8)));
+    try {
+      coalescer.offer("a", payload(1));
+      String first = flushed.poll(10, TimeUnit.SECONDS);
+      assertNotNull(first);
+      assertEquals("a:1", first);
+      assertEquals(0, coalescer.getWaitingCount());
+    } finally {
+      coalescer.close();
+    }
+  }
+
+  private void record(String deviceId, byte[] payload) {
+    sent.add(deviceId + ":" + new String(payload, StandardCharsets.UTF_8));
+  }
+
+  private static byte[] payload(int value) {
+    return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+  }
+}
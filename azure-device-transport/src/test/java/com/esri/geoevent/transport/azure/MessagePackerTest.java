@@ -0,0 +1,145 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MessagePackerTest {
+  // long enough for no pack to linger out during a test
+  private static final long NO_LINGER_MILLIS = 60000L;
+
+  private final List<String> sent = new CopyOnWriteArrayList<>();
+
+  @Test
+  public void jsonArrayPacksThePayloadsAsArrayElements() {
+    MessagePacker packer = new MessagePacker(MessagePacker.FORMAT_JSON_ARRAY, 1024, NO_LINGER_MILLIS, this::record);
+    packer.add("d", null, bytes("{\"a\":1}\n"));
+    packer.add("d", null, bytes("{\"a\":2}"));
+    packer.close();
+
+    assertEquals(Arrays.asList("d json-array 2 [{\"a\":1},{\"a\":2}]"), sent);
+  }
+
+  @Test
+  public void newlineDelimitedPacksThePayloadsAsLines() {
+    MessagePacker packer = new MessagePacker(MessagePacker.FORMAT_NEWLINE_DELIMITED, 1024, NO_LINGER_MILLIS, this::record);
+    packer.add("d", null, bytes("x\r\n"));
+    packer.add("d", null, bytes("y \t"));
+    packer.close();
+
+    assertEquals(Arrays.asList("d ndjson 2 x\ny\n"), sent);
+  }
+
+  @Test
+  public void newlineDelimitedPackIsSentAtTheByteThreshold() {
+    MessagePacker packer = new MessagePacker(MessagePacker.FORMAT_NEWLINE_DELIMITED, 10, NO_LINGER_MILLIS, this::record);
+    packer.add("d", null, bytes("aaaa"));
+    packer.add("d", null, bytes("bbbb"));
+    assertEquals(Arrays.asList("d ndjson 2 aaaa\nbbbb\n"), sent);
+
+    packer.add("d", null, bytes("cc"));
+    packer.add("d", null, bytes("dddddddd"));
+    assertEquals(Arrays.asList("d ndjson 2 aaaa\nbbbb\n", "d ndjson 1 cc\n"), sent);
+
+    packer.close();
+    assertEquals(Arrays.asList("d ndjson 2 aaaa\nbbbb\n", "d ndjson 1 cc\n", "d ndjson 1 dddddddd\n"), sent);
+  }
+
+  @Test
+  public void jsonArrayThresholdCountsTheClosingBracket() {
+    MessagePacker packer = new MessagePacker(MessagePacker.FORMAT_JSON_ARRAY, 12, NO_LINGER_MILLIS, this::record);
+    packer.add("d", null, bytes("1"));
+    packer.add("d", null, bytes("22"));
+    packer.add("d", null, bytes("333333"));
+    assertEquals(Arrays.asList("d json-array 2 [1,22]"), sent);
+
+    packer.close();
+    assertEquals(Arrays.asList("d json-array 2 [1,22]", "d json-array 1 [333333]"), sent);
+  }
+
+  @Test
+  public void payloadLargerThanTheThresholdIsSentAlone() {
+    MessagePacker packer = new MessagePacker(MessagePacker.FORMAT_NEWLINE_DELIMITED, 4, NO_LINGER_MILLIS, this::record);
+    packer.add("d", null, bytes("abcdefgh"));
+
+    assertEquals(Arrays.asList("d ndjson 1 abcdefgh\n"), sent);
+    packer.close();
+    assertEquals(1, sent.size());
+  }
+
+  @Test
+  public void devicesArePackedSeparatelyWithTheirTokens() {
+    List<String> tokens = new CopyOnWriteArrayList<>();
+    MessagePacker packer = new MessagePacker(MessagePacker.FORMAT_NEWLINE_DELIMITED, 1024, NO_LINGER_MILLIS, (deviceId, sasToken, payload, format, count) -> {
+      record(deviceId, sasToken, payload, format, count);
+      tokens.add(deviceId + "=" + sasToken);
+    });
+    packer.add("d1", null, bytes("a"));
+    packer.add("d2", "t2", bytes("b"));
+    packer.add("d1", "t1", bytes("c"));
+    packer.close();
+
+    List<String> messages = new ArrayList<>(sent);
+    Collections.sort(messages);
+    assertEquals(Arrays.asList("d1 ndjson 2 a\nc\n", "d2 ndjson 1 b\n"), messages);
+    Collections.sort(tokens);
+    assertEquals(Arrays.asList("d1=t1", "d2=t2"), tokens);
+  }
+
+  @Test
+  public void packIsSentOnceItHasLingered() throws Exception {
+    BlockingQueue<String> lingered = new LinkedBlockingQueue<>();
+    MessagePacker packer = new MessagePacker(MessagePacker.FORMAT_NEWLINE_DELIMITED, 1024, 20L, (deviceId, sasToken, payload, format, count) -> lingered.add(new String(payload, StandardCharsets.UTF_8)));
+    try {
+      packer.add("d", null, bytes("a"));
+      String message = lingered.poll(10, TimeUnit.SECONDS);
+      assertNotNull(message);
+      assertEquals("a\n", message);
+    } finally {
+      packer.close();
+    }
+  }
+
+  private void record(String deviceId, String sasToken, byte[] payload, String format, int count) {
+    sent.add(deviceId + " " + format + " " + count + " " + new String(payload, StandardCharsets.UTF_8));
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+import com.microsoft.azure.servicebus.QuotaExceededException;
+import com.microsoft.azure.servicebus.ServerBusyException;
+import com.microsoft.azure.servicebus.ServiceBusException;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Send rate that follows the throttling of the Event Hub: halved when the service reports that it
+ * is busy or that a quota is exceeded, and raised by a tenth of the initial rate for every second
+ * that passes without.
+ */
+public class AdaptiveRateLimiter {
+  private static final double DECREASE_FACTOR = 0.5;
+  // a burst of throttled sends only halves the rate once
+  private static final long DECREASE_INTERVAL_MILLIS = 1000L;
+  private static final long INCREASE_INTERVAL_MILLIS = 1000L;
+  private static final long MIN_BACKOFF_MILLIS = 100L;
+  private static final long MAX_BACKOFF_MILLIS = 10000L;
+
+  private final RateLimiter limiter;
+  private final double minRate;
+  private final double maxRate;
+  private final double increaseStep;
+  private volatile double rate;
+  private long lastDecreaseMillis;
+  private long lastIncreaseMillis;
+  private final AtomicLong throttleCount = new AtomicLong();
+
+  public AdaptiveRateLimiter(int initialRate, int minRate, int maxRate) {
+    this.minRate = Math.max(1, minRate);
+    this.maxRate = Math.max(this.minRate, maxRate);
+    this.rate = Math.min(this.maxRate, Math.max(this.minRate, initialRate));
+    this.increaseStep = Math.max(1.0, this.rate / 10.0);
+    this.limiter = new RateLimiter((int) this.rate);
+    this.lastIncreaseMillis = System.currentTimeMillis();
+  }
+
+  public void acquire(int permits) throws InterruptedException {
+    increase();
+    limiter.acquire(permits);
+  }
+
+  /**
+   * Reports a send the service rejected because it is throttling.
+   */
+  public synchronized void throttled() {
+    throttleCount.incrementAndGet();
+    long now = System.currentTimeMillis();
+    lastIncreaseMillis = now;
+    if (now - lastDecreaseMillis < DECREASE_INTERVAL_MILLIS)
+      return;
+    lastDecreaseMillis = now;
+    setRate(rate * DECREASE_FACTOR);
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+  public long getThrottleCount() {
+    return throttleCount.get();
+  }
+
+  private synchronized void increase() {
+    long elapsed = System.currentTimeMillis() - lastIncreaseMillis;
+    if (rate >= maxRate || elapsed < INCREASE_INTERVAL_MILLIS)
+      return;
+    lastIncreaseMillis += elapsed - elapsed % INCREASE_INTERVAL_MILLIS;
+    setRate(rate + increaseStep * (elapsed / INCREASE_INTERVAL_MILLIS));
+  }
+
+  private void setRate(double newRate) {
+    rate = Math.min(maxRate, Math.max(minRate, newRate));
+    limiter.setPermitsPerSecond(rate);
+  }
+
+  public static boolean isThrottled(Throwable error) {
+    Throwable cause = unwrap(error);
+    return cause instanceof ServerBusyException || cause instanceof QuotaExceededException;
+  }
+
+  public static boolean isTransient(Throwable error) {
+    Throwable cause = unwrap(error);
+    return cause instanceof ServiceBusException && ((ServiceBusException) cause).getIsTransient();
+  }
+
+  /**
+   * Exponential backoff with jitter, spreading out the retries of concurrent senders.
+   */
+  public static long backoffMillis(int attempt) {
+    long ceiling = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(attempt, 16));
+    return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+  }
+
+  static Throwable unwrap(Throwable error) {
+    while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null)
+      error = error.getCause();
+    return error;
+  }
+}
@@ -0,0 +1,192 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.microsoft.azure.eventhubs.EventData;
+import com.microsoft.azure.eventprocessorhost.PartitionContext;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes partition checkpoints off the receive threads. Delivered events are only remembered;
+ * once a partition has seen enough events, or enough time has passed, the latest delivered event
+ * is checkpointed on a background thread. Intermediate events are never written.
+ */
+public class AsyncCheckpointer {
+  // logger
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(AsyncCheckpointer.class);
+
+  private final int intervalEvents;
+  private final long intervalMillis;
+  private final ConcurrentHashMap<String, PartitionState> partitions = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService executor;
+
+  // statistics
+  private final AtomicLong checkpointCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+  private final AtomicLong totalLatencyMillis = new AtomicLong();
+  private volatile long lastLatencyMillis = 0L;
+  private volatile long maxLatencyMillis = 0L;
+  private volatile String lastFailure = null;
+
+  public AsyncCheckpointer(int intervalEvents, long intervalMillis) {
+    this.intervalEvents = Math.max(1, intervalEvents);
+    this.intervalMillis = Math.max(1L, intervalMillis);
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+    this.executor.scheduleWithFixedDelay(this::checkpointIdlePartitions, this.intervalMillis, this.intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Records that all events of a partition up to and including <code>lastEvent</code> have been
+   * handed to the adapter.
+   */
+  public void delivered(PartitionContext context, EventData lastEvent, int eventCount) {
+    if (lastEvent == null)
+      return;
+
+    PartitionState state = partitions.computeIfAbsent(context.getPartitionId(), id -> new PartitionState(context));
+    state.pending.set(lastEvent);
+    int sinceLast = state.eventsSinceCheckpoint.addAndGet(eventCount);
+    if (sinceLast >= intervalEvents || System.currentTimeMillis() - state.lastCheckpointTime >= intervalMillis)
+      schedule(state);
+  }
+
+  /**
+   * Synchronously writes the latest pending checkpoint of a partition and forgets about it,
+   * called when the partition is closed while its lease is still held.
+   */
+  public void flush(PartitionContext context) {
+    PartitionState state = partitions.remove(context.getPartitionId());
+    if (state != null)
+      write(state);
+  }
+
+  /**
+   * Forgets a partition without writing its pending checkpoint, e.g. after its lease was lost.
+   */
+  public void discard(PartitionContext context) {
+    partitions.remove(context.getPartitionId());
+  }
+
+  public void close() {
+    executor.shutdownNow();
+    partitions.clear();
+  }
+
+  public long getCheckpointCount() {
+    return checkpointCount.get();
+  }
+
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  public long getLastLatencyMillis() {
+    return lastLatencyMillis;
+  }
+
+  public long getMaxLatencyMillis() {
+    return maxLatencyMillis;
+  }
+
+  public long getAverageLatencyMillis() {
+    long count = checkpointCount.get();
+    return (count > 0) ? totalLatencyMillis.get() / count : 0L;
+  }
+
+  public String getLastFailure() {
+    return lastFailure;
+  }
+
+  private void schedule(PartitionState state) {
+    if (state.scheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(() -> {
+          state.scheduled.set(false);
+          write(state);
+        });
+      } catch (Exception rejected) {
+        // shutting down
+        state.scheduled.set(false);
+      }
+    }
+  }
+
+  private void checkpointIdlePartitions() {
+    long now = System.currentTimeMillis();
+    for (PartitionState state : partitions.values()) {
+      if (state.pending.get() != null && now - state.lastCheckpointTime >= intervalMillis)
+        schedule(state);
+    }
+  }
+
+  private void write(PartitionState state) {
+    EventData event = state.pending.getAndSet(null);
+    if (event == null)
+      return;
+
+    state.eventsSinceCheckpoint.set(0);
+    long start = System.nanoTime();
+    try {
+      state.context.checkpoint(event);
+      long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      lastLatencyMillis = latency;
+      if (latency > maxLatencyMillis)
+        maxLatencyMillis = latency;
+      totalLatencyMillis.addAndGet(latency);
+      checkpointCount.incrementAndGet();
+      lastFailure = null;
+    } catch (Exception error) {
+      failureCount.incrementAndGet();
+      lastFailure = error.toString();
+      LOGGER.warn("CHECKPOINT_ERROR", state.context.getPartitionId(), error.toString());
+      // keep the event around for the next attempt unless something newer was delivered meanwhile
+      state.pending.compareAndSet(null, event);
+    } finally {
+      state.lastCheckpointTime = System.currentTimeMillis();
+    }
+  }
+
+  private static final class PartitionState {
+    private final PartitionContext context;
+    private final AtomicReference<EventData> pending = new AtomicReference<>();
+    private final AtomicInteger eventsSinceCheckpoint = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long lastCheckpointTime = System.currentTimeMillis();
+
+    PartitionState(PartitionContext context) {
+      this.context = context;
+    }
+  }
+}
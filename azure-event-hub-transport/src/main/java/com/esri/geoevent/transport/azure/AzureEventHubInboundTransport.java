@@ -32,15 +32,27 @@ import com.esri.ges.transport.InboundTransportBase;
 import com.esri.ges.transport.TransportDefinition;
 import com.microsoft.azure.eventhubs.EventData;
 import com.microsoft.azure.eventhubs.EventHubClient;
+import com.microsoft.azure.eventhubs.PartitionReceiver;
 import com.microsoft.azure.eventprocessorhost.*;
 import com.microsoft.azure.servicebus.ConnectionStringBuilder;
 
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
 import java.net.URI;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public class AzureEventHubInboundTransport extends InboundTransportBase {
   // based on the microsoft's azure-eventhubs-eph API:
@@ -51,6 +63,16 @@ public class AzureEventHubInboundTransport extends InboundTransportBase {
   // logger
   private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(AzureEventHubInboundTransport.class);
 
+  private static final byte DELIMITER = '\n';
+  private static final long MAX_POOLED_BYTES = 64L * 1024 * 1024;
+  private static final String HOST_NAME_PREFIX = "geoevent";
+  private static final int MAX_QUEUE_DRAIN = 1000;
+  private static final long LINGER_SHUTDOWN_TIMEOUT_SECONDS = 10L;
+  private static final String METRICS_DOMAIN = "com.esri.geoevent.transport.azure";
+  // the range PartitionReceiver accepts
+  private static final int MIN_PREFETCH_COUNT = 10;
+  private static final int MAX_PREFETCH_COUNT = 999;
+
   private String eventHubName = ""; // e.g. "hkiot1"
   private String eventHubConsumerGroupName = EventHubClient.DEFAULT_CONSUMER_GROUP_NAME;
   private boolean provideEventHubConnectionString = false;
@@ -60,15 +82,59 @@ public class AzureEventHubInboundTransport extends InboundTransportBase {
   private String eventHubAccessKey = "";  // sasKey
 
   private String storageConnectionString = "";
+  private boolean useDirectBuffers = false;
+  private boolean enableBatchDelivery = false;
+  private int maxBatchBytes = AzureEventHubInboundTransportDefinition.DEFAULT_MAX_BATCH_BYTES;
+  private int maxBatchEvents = AzureEventHubInboundTransportDefinition.DEFAULT_MAX_BATCH_EVENTS;
+  private int maxBatchLingerMs = AzureEventHubInboundTransportDefinition.DEFAULT_MAX_BATCH_LINGER_MS;
+  private boolean enableCheckpointing = false;
+  private int checkpointIntervalEvents = AzureEventHubInboundTransportDefinition.DEFAULT_CHECKPOINT_INTERVAL_EVENTS;
+  private int checkpointIntervalSeconds = AzureEventHubInboundTransportDefinition.DEFAULT_CHECKPOINT_INTERVAL_SECONDS;
+  private String checkpointStore = AzureEventHubInboundTransportDefinition.CHECKPOINT_STORE_AZURE_STORAGE;
+  private String checkpointDirectory = "";
+  private int leaseDurationSeconds = AzureEventHubInboundTransportDefinition.DEFAULT_LEASE_DURATION_SECONDS;
+  private int leaseRenewIntervalSeconds = AzureEventHubInboundTransportDefinition.DEFAULT_LEASE_RENEW_INTERVAL_SECONDS;
+  private String startPosition = AzureEventHubInboundTransportDefinition.START_POSITION_LATEST;
+  private String startTimestamp = "";
+  private boolean enableCatchUpThrottle = false;
+  private int catchUpMaxEventsPerSecond = AzureEventHubInboundTransportDefinition.DEFAULT_CATCH_UP_MAX_EVENTS_PER_SECOND;
+  private int catchUpLagThresholdSeconds = AzureEventHubInboundTransportDefinition.DEFAULT_CATCH_UP_LAG_THRESHOLD_SECONDS;
+  private boolean enableDeliveryQueue = false;
+  private int deliveryQueueCapacity = AzureEventHubInboundTransportDefinition.DEFAULT_DELIVERY_QUEUE_CAPACITY;
+  private String overflowPolicy = AzureEventHubInboundTransportDefinition.OVERFLOW_POLICY_BLOCK;
+  private int overflowSampleRate = AzureEventHubInboundTransportDefinition.DEFAULT_OVERFLOW_SAMPLE_RATE;
+  private int prefetchCount = AzureEventHubInboundTransportDefinition.DEFAULT_PREFETCH_COUNT;
+  private int receiveMaxBatchSize = AzureEventHubInboundTransportDefinition.DEFAULT_RECEIVE_MAX_BATCH_SIZE;
+  private int receiveTimeoutSeconds = AzureEventHubInboundTransportDefinition.DEFAULT_RECEIVE_TIMEOUT_SECONDS;
+  private boolean enableAdaptiveReceive = false;
+  private int adaptiveMinPrefetchCount = AzureEventHubInboundTransportDefinition.DEFAULT_ADAPTIVE_MIN_PREFETCH_COUNT;
+  private int adaptiveMaxPrefetchCount = AzureEventHubInboundTransportDefinition.DEFAULT_ADAPTIVE_MAX_PREFETCH_COUNT;
+  private int adaptiveMinBatchSize = AzureEventHubInboundTransportDefinition.DEFAULT_ADAPTIVE_MIN_BATCH_SIZE;
+  private int adaptiveMaxBatchSize = AzureEventHubInboundTransportDefinition.DEFAULT_ADAPTIVE_MAX_BATCH_SIZE;
+  private boolean enablePartitionMetrics = false;
 
-  private EventProcessor eventProcessor = null;
   private EventProcessorFactory eventProcessorFactory = null;
   private EventProcessorHost host = null;
+  private String hostName = null;
+  private ByteBufferPool bufferPool = null;
+  // batchers of the currently open partitions, swept by the linger scheduler
+  private final Set<EventBatcher> batchers = ConcurrentHashMap.newKeySet();
+  // delivery queues of the currently open partitions, plus what the closed ones dropped
+  private final Set<BoundedDeliveryQueue<EventData>> deliveryQueues = ConcurrentHashMap.newKeySet();
+  private final AtomicLong closedQueueDroppedCount = new AtomicLong();
+  private final AtomicLong deliveryErrorCount = new AtomicLong();
+  private ScheduledExecutorService lingerScheduler = null;
+  private AsyncCheckpointer checkpointer = null;
+  private RateLimiter catchUpLimiter = null;
+  private ReceiveOptionsTuner receiveTuner = null;
+  // how far behind live (enqueued time of the newest delivered event) each partition is, in ms
+  private final ConcurrentHashMap<String, Long> partitionLagMillis = new ConcurrentHashMap<>();
+  // metrics of the currently open partitions
+  private final ConcurrentHashMap<String, PartitionMetrics> partitionMetrics = new ConcurrentHashMap<>();
   private String errorMessage = null;
 
   public AzureEventHubInboundTransport(TransportDefinition definition) throws ComponentException {
     super(definition);
-    eventProcessor = new EventProcessor();
     eventProcessorFactory = new EventProcessorFactory();
   }
 
@@ -98,13 +164,42 @@ public class AzureEventHubInboundTransport extends InboundTransportBase {
   }
 
   protected void cleanup(boolean completeProcessShutDown) {
+    if (lingerScheduler != null) {
+      // let a linger delivery in progress finish, interrupting it could lose a batch the checkpointer already moved past
+      lingerScheduler.shutdown();
+      try {
+        if (!lingerScheduler.awaitTermination(LINGER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+          lingerScheduler.shutdownNow();
+      } catch (InterruptedException e) {
+        lingerScheduler.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+      lingerScheduler = null;
+    }
+
     if (host != null) {
+      // closing the partitions on shutdown delivers their open batches and flushes their checkpoints
       try {
         host.unregisterEventProcessor();
       } catch (Exception ignored) {
       }
       host = null;
 
+      // batches of partitions that did not close are delivered before the last checkpoints are written
+      for (EventBatcher openBatcher : batchers)
+        openBatcher.flush();
+      batchers.clear();
+
+      if (checkpointer != null) {
+        checkpointer.close();
+        checkpointer = null;
+      }
+
+      if (receiveTuner != null) {
+        receiveTuner.close();
+        receiveTuner = null;
+      }
+
       if (completeProcessShutDown) {
         try {
           EventProcessorHost.forceExecutorShutdown(120);
@@ -133,7 +228,51 @@ public class AzureEventHubInboundTransport extends InboundTransportBase {
       eventHubEndpoint = getProperty(AzureEventHubInboundTransportDefinition.EVENT_HUB_ENDPOINT_PROPERTY_NAME).getValueAsString();
       eventHubAccessPolicy = getProperty(AzureEventHubInboundTransportDefinition.EVENT_HUB_ACCESS_POLICY_PROPERTY_NAME).getValueAsString();
       eventHubAccessKey = getProperty(AzureEventHubInboundTransportDefinition.EVENT_HUB_ACCESS_KEY_PROPERTY_NAME).getValueAsString();
-      storageConnectionString = getProperty(AzureEventHubInboundTransportDefinition.STORAGE_CONNECTION_STRING_PROPERTY_NAME).getValueAsString();
+      checkpointStore = getProperty(AzureEventHubInboundTransportDefinition.CHECKPOINT_STORE_PROPERTY_NAME).getValueAsString();
+      if (AzureEventHubInboundTransportDefinition.CHECKPOINT_STORE_LOCAL_FILE.equals(checkpointStore)) {
+        checkpointDirectory = getProperty(AzureEventHubInboundTransportDefinition.CHECKPOINT_DIRECTORY_PROPERTY_NAME).getValueAsString();
+        leaseDurationSeconds = (Integer) getProperty(AzureEventHubInboundTransportDefinition.LEASE_DURATION_SECONDS_PROPERTY_NAME).getValue();
+        leaseRenewIntervalSeconds = (Integer) getProperty(AzureEventHubInboundTransportDefinition.LEASE_RENEW_INTERVAL_SECONDS_PROPERTY_NAME).getValue();
+      } else
+        storageConnectionString = getProperty(AzureEventHubInboundTransportDefinition.STORAGE_CONNECTION_STRING_PROPERTY_NAME).getValueAsString();
+      startPosition = getProperty(AzureEventHubInboundTransportDefinition.START_POSITION_PROPERTY_NAME).getValueAsString();
+      if (AzureEventHubInboundTransportDefinition.START_POSITION_TIMESTAMP.equals(startPosition))
+        startTimestamp = getProperty(AzureEventHubInboundTransportDefinition.START_TIMESTAMP_PROPERTY_NAME).getValueAsString();
+      enableCatchUpThrottle = ((Boolean) (getProperty(AzureEventHubInboundTransportDefinition.ENABLE_CATCH_UP_THROTTLE_PROPERTY_NAME).getValue()));
+      if (enableCatchUpThrottle) {
+        catchUpMaxEventsPerSecond = (Integer) getProperty(AzureEventHubInboundTransportDefinition.CATCH_UP_MAX_EVENTS_PER_SECOND_PROPERTY_NAME).getValue();
+        catchUpLagThresholdSeconds = (Integer) getProperty(AzureEventHubInboundTransportDefinition.CATCH_UP_LAG_THRESHOLD_SECONDS_PROPERTY_NAME).getValue();
+      }
+      enableCheckpointing = ((Boolean) (getProperty(AzureEventHubInboundTransportDefinition.ENABLE_CHECKPOINTING_PROPERTY_NAME).getValue()));
+      if (enableCheckpointing) {
+        checkpointIntervalEvents = (Integer) getProperty(AzureEventHubInboundTransportDefinition.CHECKPOINT_INTERVAL_EVENTS_PROPERTY_NAME).getValue();
+        checkpointIntervalSeconds = (Integer) getProperty(AzureEventHubInboundTransportDefinition.CHECKPOINT_INTERVAL_SECONDS_PROPERTY_NAME).getValue();
+      }
+      useDirectBuffers = ((Boolean) (getProperty(AzureEventHubInboundTransportDefinition.USE_DIRECT_BUFFERS_PROPERTY_NAME).getValue()));
+      enableBatchDelivery = ((Boolean) (getProperty(AzureEventHubInboundTransportDefinition.ENABLE_BATCH_DELIVERY_PROPERTY_NAME).getValue()));
+      if (enableBatchDelivery) {
+        maxBatchBytes = (Integer) getProperty(AzureEventHubInboundTransportDefinition.MAX_BATCH_BYTES_PROPERTY_NAME).getValue();
+        maxBatchEvents = (Integer) getProperty(AzureEventHubInboundTransportDefinition.MAX_BATCH_EVENTS_PROPERTY_NAME).getValue();
+        maxBatchLingerMs = (Integer) getProperty(AzureEventHubInboundTransportDefinition.MAX_BATCH_LINGER_MS_PROPERTY_NAME).getValue();
+      }
+      enableDeliveryQueue = ((Boolean) (getProperty(AzureEventHubInboundTransportDefinition.ENABLE_DELIVERY_QUEUE_PROPERTY_NAME).getValue()));
+      if (enableDeliveryQueue) {
+        deliveryQueueCapacity = (Integer) getProperty(AzureEventHubInboundTransportDefinition.DELIVERY_QUEUE_CAPACITY_PROPERTY_NAME).getValue();
+        overflowPolicy = getProperty(AzureEventHubInboundTransportDefinition.OVERFLOW_POLICY_PROPERTY_NAME).getValueAsString();
+        if (AzureEventHubInboundTransportDefinition.OVERFLOW_POLICY_SAMPLE.equals(overflowPolicy))
+          overflowSampleRate = (Integer) getProperty(AzureEventHubInboundTransportDefinition.OVERFLOW_SAMPLE_RATE_PROPERTY_NAME).getValue();
+      }
+      prefetchCount = (Integer) getProperty(AzureEventHubInboundTransportDefinition.PREFETCH_COUNT_PROPERTY_NAME).getValue();
+      receiveMaxBatchSize = (Integer) getProperty(AzureEventHubInboundTransportDefinition.RECEIVE_MAX_BATCH_SIZE_PROPERTY_NAME).getValue();
+      receiveTimeoutSeconds = (Integer) getProperty(AzureEventHubInboundTransportDefinition.RECEIVE_TIMEOUT_SECONDS_PROPERTY_NAME).getValue();
+      enableAdaptiveReceive = ((Boolean) (getProperty(AzureEventHubInboundTransportDefinition.ENABLE_ADAPTIVE_RECEIVE_PROPERTY_NAME).getValue()));
+      if (enableAdaptiveReceive) {
+        adaptiveMinPrefetchCount = (Integer) getProperty(AzureEventHubInboundTransportDefinition.ADAPTIVE_MIN_PREFETCH_COUNT_PROPERTY_NAME).getValue();
+        adaptiveMaxPrefetchCount = (Integer) getProperty(AzureEventHubInboundTransportDefinition.ADAPTIVE_MAX_PREFETCH_COUNT_PROPERTY_NAME).getValue();
+        adaptiveMinBatchSize = (Integer) getProperty(AzureEventHubInboundTransportDefinition.ADAPTIVE_MIN_BATCH_SIZE_PROPERTY_NAME).getValue();
+        adaptiveMaxBatchSize = (Integer) getProperty(AzureEventHubInboundTransportDefinition.ADAPTIVE_MAX_BATCH_SIZE_PROPERTY_NAME).getValue();
+      }
+      enablePartitionMetrics = ((Boolean) (getProperty(AzureEventHubInboundTransportDefinition.ENABLE_PARTITION_METRICS_PROPERTY_NAME).getValue()));
     } catch (Exception e) {
       errorMessage = LOGGER.translate("ERROR_READING_PROPS");
       LOGGER.error("ERROR_READING_PROPS", e);
@@ -153,11 +292,50 @@ public class AzureEventHubInboundTransport extends InboundTransportBase {
         eventHubConnectionString = builder.toString();
       }
 
-      host = new EventProcessorHost(eventHubName, eventHubConsumerGroupName, eventHubConnectionString, storageConnectionString);
+      if (bufferPool == null || bufferPool.isDirect() != useDirectBuffers)
+        bufferPool = new ByteBufferPool(useDirectBuffers, MAX_POOLED_BYTES);
+
+      if (enableBatchDelivery && maxBatchLingerMs > 0) {
+        long checkInterval = Math.max(1, maxBatchLingerMs / 2);
+        lingerScheduler = Executors.newSingleThreadScheduledExecutor();
+        lingerScheduler.scheduleWithFixedDelay(() -> {
+          for (EventBatcher lingeringBatcher : batchers)
+            lingeringBatcher.flushIfLingering(maxBatchLingerMs);
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+      }
+
+      // unique per machine and start, so the hosts of a cluster can tell their leases apart
+      hostName = EventProcessorHost.createHostName(HOST_NAME_PREFIX + "-" + getLocalHostName());
+      if (AzureEventHubInboundTransportDefinition.CHECKPOINT_STORE_LOCAL_FILE.equals(checkpointStore)) {
+        int leaseDurationMs = Math.max(1, leaseDurationSeconds) * 1000;
+        int leaseRenewIntervalMs = Math.min(Math.max(1, leaseRenewIntervalSeconds) * 1000, leaseDurationMs / 2);
+        FileCheckpointLeaseManager store = new FileCheckpointLeaseManager(checkpointDirectory, eventHubName, eventHubConsumerGroupName, hostName, leaseDurationMs, leaseRenewIntervalMs);
+        host = new EventProcessorHost(hostName, eventHubName, eventHubConsumerGroupName, eventHubConnectionString, store, store);
+      } else {
+        // the lease container is named after the Event Hub, as the host names it by default
+        host = new EventProcessorHost(hostName, eventHubName, eventHubConsumerGroupName, eventHubConnectionString, storageConnectionString, eventHubName);
+      }
+
+      if (enableCheckpointing)
+        checkpointer = new AsyncCheckpointer(checkpointIntervalEvents, checkpointIntervalSeconds * 1000L);
+      catchUpLimiter = enableCatchUpThrottle ? new RateLimiter(catchUpMaxEventsPerSecond) : null;
+      partitionLagMillis.clear();
+      closedQueueDroppedCount.set(0L);
+      deliveryErrorCount.set(0L);
+
       EventProcessorOptions options = EventProcessorOptions.getDefaultOptions();
       options.setExceptionNotification(new ErrorNotificationHandler());
+      options.setPrefetchCount(clampPrefetchCount(prefetchCount));
+      options.setMaxBatchSize(Math.max(1, receiveMaxBatchSize));
+      options.setReceiveTimeOut(Duration.ofSeconds(Math.max(1, receiveTimeoutSeconds)));
+      // lets the receivers report the partition's last enqueued sequence number and time
+      options.setReceiverRuntimeMetricEnabled(enablePartitionMetrics);
+      if (enableAdaptiveReceive)
+        receiveTuner = new ReceiveOptionsTuner(options, clampPrefetchCount(adaptiveMinPrefetchCount), clampPrefetchCount(adaptiveMaxPrefetchCount), Math.max(1, adaptiveMinBatchSize), Math.max(1, adaptiveMaxBatchSize), this::getMaxLagMillis);
+      // only consulted for partitions without a checkpoint, the host resumes from a checkpoint when there is one
+      final Object initialPosition = resolveInitialPosition();
       options.setInitialOffsetProvider((partitionId) -> {
-        return Instant.now();
+        return (initialPosition != null) ? initialPosition : Instant.now();
       });
       host.registerEventProcessorFactory(eventProcessorFactory, options).get();
 
@@ -176,6 +354,86 @@ public class AzureEventHubInboundTransport extends InboundTransportBase {
     }
   }
 
+  private Object resolveInitialPosition() {
+    switch (startPosition) {
+      case AzureEventHubInboundTransportDefinition.START_POSITION_EARLIEST:
+        return PartitionReceiver.START_OF_STREAM;
+      case AzureEventHubInboundTransportDefinition.START_POSITION_TIMESTAMP:
+        String timestamp = startTimestamp.trim();
+        // either an ISO-8601 instant (2017-01-31T12:00:00Z) or epoch milliseconds
+        if (!timestamp.isEmpty() && timestamp.chars().allMatch(Character::isDigit))
+          return Instant.ofEpochMilli(Long.parseLong(timestamp));
+        return Instant.parse(timestamp);
+      default:
+        // latest, evaluated when the partition is opened
+        return null;
+    }
+  }
+
+  private void registerMetrics(PartitionMetrics metrics) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(metrics, metricsName(metrics.getPartitionId()));
+      partitionMetrics.put(metrics.getPartitionId(), metrics);
+    } catch (Exception e) {
+      LOGGER.warn("METRICS_REGISTRATION_ERROR", metrics.getPartitionId(), e.toString());
+    }
+  }
+
+  private void unregisterMetrics(PartitionMetrics metrics) {
+    if (!partitionMetrics.remove(metrics.getPartitionId(), metrics))
+      return;
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.unregisterMBean(metricsName(metrics.getPartitionId()));
+    } catch (Exception ignored) {
+    }
+  }
+
+  private ObjectName metricsName(String partitionId) throws Exception {
+    // the host name is unique per start, keeping several inputs reading the same hub apart
+    return new ObjectName(METRICS_DOMAIN + ":type=EventHubPartition,eventHub=" + ObjectName.quote(eventHubName) + ",host=" + ObjectName.quote(hostName) + ",partition=" + ObjectName.quote(partitionId));
+  }
+
+  private static String getLocalHostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (Exception e) {
+      return "localhost";
+    }
+  }
+
+  private static int clampPrefetchCount(int count) {
+    return Math.min(MAX_PREFETCH_COUNT, Math.max(MIN_PREFETCH_COUNT, count));
+  }
+
+  private long getMaxLagMillis() {
+    long maxLagMillis = 0L;
+    for (Long lag : partitionLagMillis.values())
+      maxLagMillis = Math.max(maxLagMillis, lag);
+    return maxLagMillis;
+  }
+
+  private void throttleCatchUp(PartitionContext context, Iterable<EventData> events) throws InterruptedException {
+    int count = 0;
+    Instant newest = null;
+    for (EventData event : events) {
+      count++;
+      Instant enqueued = (event.getSystemProperties() != null) ? event.getSystemProperties().getEnqueuedTime() : null;
+      if (enqueued != null && (newest == null || enqueued.isAfter(newest)))
+        newest = enqueued;
+    }
+    if (newest == null)
+      return;
+
+    long lagMillis = Math.max(0L, System.currentTimeMillis() - newest.toEpochMilli());
+    partitionLagMillis.put(context.getPartitionId(), lagMillis);
+
+    RateLimiter limiter = catchUpLimiter;
+    if (limiter != null && count > 0 && lagMillis > catchUpLagThresholdSeconds * 1000L)
+      limiter.acquire(count);
+  }
+
   private String buildConnectionStringFromNamespace(URI eventHubEndpointUri) {
     // build the eventHubNamespaceName
     String eventHubNamespaceName = eventHubEndpointUri.getHost();
@@ -185,47 +443,153 @@ public class AzureEventHubInboundTransport extends InboundTransportBase {
     return builder.toString();
   }
 
-  private void receive(byte[] bytes) {
-    if (bytes != null && bytes.length > 0) {
-      String str = new String(bytes);
-      str = str + '\n';
-      byte[] newBytes = str.getBytes();
+  private boolean receive(EventData event, String channelId) {
+    int length = bodyLength(event);
+    if (length <= 0)
+      return true;
 
-      ByteBuffer bb = ByteBuffer.allocate(newBytes.length);
-      try {
-        bb.put(newBytes);
-        bb.flip();
-        byteListener.receive(bb, "");
-        bb.clear();
-      } catch (BufferOverflowException boe) {
-        LOGGER.error("BUFFER_OVERFLOW_ERROR", boe);
-        bb.clear();
-        setRunningState(RunningState.ERROR);
-      } catch (Exception e) {
-        LOGGER.error("UNEXPECTED_ERROR", e);
-        stop();
-        setRunningState(RunningState.ERROR);
-      }
+    // copy the raw body plus the delimiter straight into a pooled buffer, no charset round-trip
+    ByteBuffer bb = bufferPool.acquire(length + 1);
+    try {
+      putBody(event, bb);
+      bb.put(DELIMITER);
+      bb.flip();
+      return deliver(bb, channelId);
+    } finally {
+      bufferPool.release(bb);
+    }
+  }
+
+  // EventData.getBytes() returns the whole backing array without the body's offset or length, so the
+  // deprecated body accessors are the only way to copy an event's bytes out without an extra copy
+  @SuppressWarnings("deprecation")
+  static int bodyLength(EventData event) {
+    return (event.getBody() != null) ? event.getBodyLength() : 0;
+  }
+
+  @SuppressWarnings("deprecation")
+  private static void putBody(EventData event, ByteBuffer target) {
+    target.put(event.getBody(), event.getBodyOffset(), event.getBodyLength());
+  }
+
+  private boolean deliver(ByteBuffer bb, String channelId) {
+    try {
+      byteListener.receive(bb, channelId);
+      return true;
+    } catch (Exception e) {
+      if (!enableDeliveryQueue)
+        return failDelivery(e);
+      // behind a delivery queue a failed delivery only costs the events in it
+      deliveryErrorCount.incrementAndGet();
+      LOGGER.warn("DELIVERY_ERROR", channelId, e.toString());
+      return false;
     }
   }
 
+  private boolean failDelivery(Exception error) {
+    if (error instanceof BufferOverflowException) {
+      LOGGER.error("BUFFER_OVERFLOW_ERROR", error);
+      setRunningState(RunningState.ERROR);
+    } else {
+      LOGGER.error("UNEXPECTED_ERROR", error);
+      stop();
+      setRunningState(RunningState.ERROR);
+    }
+    return false;
+  }
+
   @Override
   public String getStatusDetails() {
-    return errorMessage;
+    if (errorMessage != null)
+      return errorMessage;
+
+    StringBuilder details = new StringBuilder();
+    if (!partitionMetrics.isEmpty()) {
+      double eventsPerSecond = 0.0;
+      double bytesPerSecond = 0.0;
+      long maxSequenceNumberLag = 0L;
+      for (PartitionMetrics metrics : partitionMetrics.values()) {
+        eventsPerSecond += metrics.getEventsPerSecond();
+        bytesPerSecond += metrics.getBytesPerSecond();
+        maxSequenceNumberLag = Math.max(maxSequenceNumberLag, metrics.getSequenceNumberLag());
+      }
+      details.append(LOGGER.translate("METRICS_STATUS", Math.round(eventsPerSecond), Math.round(bytesPerSecond), partitionMetrics.size(), maxSequenceNumberLag));
+    }
+
+    long maxLagMillis = getMaxLagMillis();
+    if (enableCatchUpThrottle && maxLagMillis > catchUpLagThresholdSeconds * 1000L) {
+      if (details.length() > 0)
+        details.append(' ');
+      details.append(LOGGER.translate("CATCH_UP_STATUS", maxLagMillis / 1000L, catchUpMaxEventsPerSecond));
+    }
+
+    if (enableDeliveryQueue) {
+      long queued = 0L;
+      long dropped = closedQueueDroppedCount.get();
+      for (BoundedDeliveryQueue<EventData> queue : deliveryQueues) {
+        queued += queue.getDepth();
+        dropped += queue.getDroppedCount();
+      }
+      if (details.length() > 0)
+        details.append(' ');
+      details.append(LOGGER.translate("QUEUE_STATUS", queued, dropped, deliveryErrorCount.get()));
+    }
+
+    AsyncCheckpointer currentCheckpointer = checkpointer;
+    if (currentCheckpointer != null) {
+      if (details.length() > 0)
+        details.append(' ');
+      details.append(LOGGER.translate("CHECKPOINT_STATUS", currentCheckpointer.getCheckpointCount(), currentCheckpointer.getFailureCount(), currentCheckpointer.getAverageLatencyMillis(), currentCheckpointer.getMaxLatencyMillis()));
+    }
+    return (details.length() > 0) ? details.toString() : null;
   }
 
   @Override
   public boolean isClusterable() {
-    return false;
+    // consulted before the transport is started, so read straight from the property
+    try {
+      return (Boolean) getProperty(AzureEventHubInboundTransportDefinition.CLUSTERABLE_PROPERTY_NAME).getValue();
+    } catch (Exception e) {
+      return false;
+    }
   }
 
+  /**
+   * Handles a single partition. EPH calls each partition's processor from its own thread, so every
+   * partition is an independent, ordered delivery lane with its own adapter channel. With the
+   * delivery queue enabled the lane is drained by a thread of its own instead.
+   */
   public final class EventProcessor implements IEventProcessor {
+    private final PartitionContext context;
+    private final String channelId;
+    private final EventBatcher batcher;
+    private volatile BoundedDeliveryQueue<EventData> deliveryQueue = null;
+    private PartitionMetrics metrics = null;
+
+    EventProcessor(PartitionContext context) {
+      this.context = context;
+      this.channelId = context.getPartitionId();
+      this.batcher = enableBatchDelivery ? new EventBatcher(context, channelId, Math.max(1, maxBatchBytes), Math.max(1, maxBatchEvents)) : null;
+    }
+
     @Override
     public void onOpen(PartitionContext context) throws Exception {
       String message = "Partition " + context.getPartitionId() + " is opening";
       // System.out.println(message);
       // TODO - localize
       LOGGER.info(message);
+      if (batcher != null)
+        batchers.add(batcher);
+      if (enablePartitionMetrics) {
+        metrics = new PartitionMetrics(eventHubName, eventHubConsumerGroupName, channelId);
+        registerMetrics(metrics);
+      }
+      if (enableDeliveryQueue) {
+        String name = "azure-event-hub-" + eventHubName + "-" + channelId;
+        BoundedDeliveryQueue.OverflowPolicy policy = BoundedDeliveryQueue.OverflowPolicy.valueOf(overflowPolicy);
+        deliveryQueue = new BoundedDeliveryQueue<>(name, deliveryQueueCapacity, policy, overflowSampleRate, MAX_QUEUE_DRAIN, this::deliverEvents);
+        deliveryQueues.add(deliveryQueue);
+      }
     }
 
     @Override
@@ -234,6 +598,30 @@ public class AzureEventHubInboundTransport extends InboundTransportBase {
       // System.out.println(message);
       // TODO - localize
       LOGGER.info(message);
+      partitionLagMillis.remove(context.getPartitionId());
+      if (metrics != null)
+        unregisterMetrics(metrics);
+      if (batcher != null)
+        batchers.remove(batcher);
+
+      AsyncCheckpointer currentCheckpointer = checkpointer;
+      BoundedDeliveryQueue<EventData> queue = deliveryQueue;
+      if (queue != null) {
+        deliveryQueue = null;
+        deliveryQueues.remove(queue);
+        queue.close(reason == CloseReason.Shutdown);
+        closedQueueDroppedCount.addAndGet(queue.getDroppedCount());
+      }
+
+      // the lease is still ours on shutdown, so hand over what is buffered and persist how far we got
+      if (reason == CloseReason.Shutdown) {
+        if (batcher != null)
+          batcher.flush();
+        if (currentCheckpointer != null)
+          currentCheckpointer.flush(context);
+      } else if (currentCheckpointer != null) {
+        currentCheckpointer.discard(context);
+      }
     }
 
     @Override
@@ -252,18 +640,123 @@ public class AzureEventHubInboundTransport extends InboundTransportBase {
       if (events == null)
         return;
 
-      for (EventData event : events) {
-        // String message = new String(event.getBytes(),
-        receive(event.getBytes());
-        // context.checkpoint(event);
+      long start = System.nanoTime();
+      // records the partition lag and, while replaying a backlog, holds the receive thread to the catch-up rate
+      throttleCatchUp(context, events);
+
+      BoundedDeliveryQueue<EventData> queue = deliveryQueue;
+      if (queue != null) {
+        for (EventData event : events)
+          queue.offer(event);
+      } else {
+        deliverEvents(events);
+      }
+
+      if (metrics != null)
+        metrics.record(context, events, System.nanoTime() - start);
+    }
+
+    private void deliverEvents(Iterable<EventData> events) {
+      if (batcher != null) {
+        // pack the whole EPH batch into as few newline-delimited buffers as the limits allow
+        for (EventData event : events)
+          batcher.add(event);
+        if (maxBatchLingerMs <= 0)
+          batcher.flush();
+      } else {
+        EventData lastDelivered = null;
+        int deliveredCount = 0;
+        for (EventData event : events) {
+          // without a queue the first failure has stopped the transport, behind one the event is skipped
+          if (!receive(event, channelId) && !enableDeliveryQueue)
+            break;
+          lastDelivered = event;
+          deliveredCount++;
+        }
+        AsyncCheckpointer currentCheckpointer = checkpointer;
+        if (currentCheckpointer != null)
+          currentCheckpointer.delivered(context, lastDelivered, deliveredCount);
+      }
+    }
+  }
+
+  /**
+   * Coalesces the event bodies of one partition into a single newline-delimited buffer which is
+   * handed to the adapter in one call once the byte or event count limit is reached, or the linger
+   * time has elapsed.
+   */
+  private final class EventBatcher {
+    private final PartitionContext context;
+    private final String channelId;
+    private final int maxBytes;
+    private final int maxEvents;
+    private ByteBuffer batch = null;
+    private int eventCount = 0;
+    private long batchStartTime = 0L;
+    // the last event in the current batch, checkpointed once the batch is delivered
+    private EventData lastEvent = null;
+
+    EventBatcher(PartitionContext context, String channelId, int maxBytes, int maxEvents) {
+      this.context = context;
+      this.channelId = channelId;
+      this.maxBytes = maxBytes;
+      this.maxEvents = maxEvents;
+    }
+
+    synchronized void add(EventData event) {
+      int length = bodyLength(event);
+      if (length <= 0)
+        return;
+
+      if (batch != null && (batch.position() + length + 1 > maxBytes || batch.remaining() < length + 1))
+        flush();
+      if (batch == null) {
+        batch = bufferPool.acquire(Math.max(maxBytes, length + 1));
+        batchStartTime = System.currentTimeMillis();
       }
+
+      putBody(event, batch);
+      batch.put(DELIMITER);
+      eventCount++;
+      lastEvent = event;
+
+      if (eventCount >= maxEvents || batch.position() >= maxBytes)
+        flush();
+    }
+
+    synchronized void flushIfLingering(long lingerMs) {
+      if (batch != null && System.currentTimeMillis() - batchStartTime >= lingerMs)
+        flush();
+    }
+
+    synchronized void flush() {
+      if (batch == null)
+        return;
+
+      ByteBuffer bb = batch;
+      int count = eventCount;
+      EventData last = lastEvent;
+      batch = null;
+      eventCount = 0;
+      lastEvent = null;
+      boolean delivered;
+      try {
+        bb.flip();
+        delivered = deliver(bb, channelId);
+      } finally {
+        bufferPool.release(bb);
+      }
+
+      AsyncCheckpointer currentCheckpointer = checkpointer;
+      if (delivered && currentCheckpointer != null)
+        currentCheckpointer.delivered(context, last, count);
     }
   }
 
   public final class EventProcessorFactory implements IEventProcessorFactory<EventProcessor> {
     @Override
     public EventProcessor createEventProcessor(PartitionContext context) throws Exception {
-      return eventProcessor;
+      return new EventProcessor(context);
     }
   }
 
@@ -24,6 +24,7 @@
 
 package com.esri.geoevent.transport.azure;
 
+import com.esri.ges.core.property.LabeledValue;
 import com.esri.ges.core.property.PropertyDefinition;
 import com.esri.ges.core.property.PropertyException;
 import com.esri.ges.core.property.PropertyType;
@@ -33,10 +34,34 @@ import com.esri.ges.transport.TransportDefinitionBase;
 import com.esri.ges.transport.TransportType;
 import com.microsoft.azure.eventhubs.EventHubClient;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class AzureEventHubInboundTransportDefinition extends TransportDefinitionBase {
   // logger
   private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(AzureEventHubInboundTransportDefinition.class);
 
+  private static final String CHECKPOINT_STORE_LBL_1 = "${com.esri.geoevent.transport.azure-event-hub-transport.CHECKPOINT_STORE_AZURE_STORAGE_LBL}";
+  public  static final String CHECKPOINT_STORE_AZURE_STORAGE = "AZURE_STORAGE";
+  private static final String CHECKPOINT_STORE_LBL_2 = "${com.esri.geoevent.transport.azure-event-hub-transport.CHECKPOINT_STORE_LOCAL_FILE_LBL}";
+  public  static final String CHECKPOINT_STORE_LOCAL_FILE = "LOCAL_FILE";
+
+  private static final String START_POSITION_LBL_1 = "${com.esri.geoevent.transport.azure-event-hub-transport.START_POSITION_LATEST_LBL}";
+  public  static final String START_POSITION_LATEST = "LATEST";
+  private static final String START_POSITION_LBL_2 = "${com.esri.geoevent.transport.azure-event-hub-transport.START_POSITION_EARLIEST_LBL}";
+  public  static final String START_POSITION_EARLIEST = "EARLIEST";
+  private static final String START_POSITION_LBL_3 = "${com.esri.geoevent.transport.azure-event-hub-transport.START_POSITION_TIMESTAMP_LBL}";
+  public  static final String START_POSITION_TIMESTAMP = "TIMESTAMP";
+
+  private static final String OVERFLOW_POLICY_LBL_1 = "${com.esri.geoevent.transport.azure-event-hub-transport.OVERFLOW_POLICY_BLOCK_LBL}";
+  public  static final String OVERFLOW_POLICY_BLOCK = "BLOCK";
+  private static final String OVERFLOW_POLICY_LBL_2 = "${com.esri.geoevent.transport.azure-event-hub-transport.OVERFLOW_POLICY_DROP_OLDEST_LBL}";
+  public  static final String OVERFLOW_POLICY_DROP_OLDEST = "DROP_OLDEST";
+  private static final String OVERFLOW_POLICY_LBL_3 = "${com.esri.geoevent.transport.azure-event-hub-transport.OVERFLOW_POLICY_DROP_NEWEST_LBL}";
+  public  static final String OVERFLOW_POLICY_DROP_NEWEST = "DROP_NEWEST";
+  private static final String OVERFLOW_POLICY_LBL_4 = "${com.esri.geoevent.transport.azure-event-hub-transport.OVERFLOW_POLICY_SAMPLE_LBL}";
+  public  static final String OVERFLOW_POLICY_SAMPLE = "SAMPLE";
+
   // property names
   public static final String EVENT_HUB_NAME_PROPERTY_NAME = "eventHubName";
   public static final String EVENT_HUB_CONSUMER_GROUP_NAME_PROPERTY_NAME = "consumerGroupName";
@@ -46,14 +71,78 @@ public class AzureEventHubInboundTransportDefinition extends TransportDefinition
   public static final String EVENT_HUB_ACCESS_POLICY_PROPERTY_NAME = "eventHubAccessPolicy";
   public static final String EVENT_HUB_ACCESS_KEY_PROPERTY_NAME = "eventHubAccessKey";
   public static final String STORAGE_CONNECTION_STRING_PROPERTY_NAME = "storageConnectionString";
+  public static final String CHECKPOINT_STORE_PROPERTY_NAME = "checkpointStore";
+  public static final String CHECKPOINT_DIRECTORY_PROPERTY_NAME = "checkpointDirectory";
+  public static final String ENABLE_CHECKPOINTING_PROPERTY_NAME = "enableCheckpointing";
+  public static final String CHECKPOINT_INTERVAL_EVENTS_PROPERTY_NAME = "checkpointIntervalEvents";
+  public static final String CHECKPOINT_INTERVAL_SECONDS_PROPERTY_NAME = "checkpointIntervalSeconds";
+  public static final String START_POSITION_PROPERTY_NAME = "startPosition";
+  public static final String START_TIMESTAMP_PROPERTY_NAME = "startTimestamp";
+  public static final String ENABLE_CATCH_UP_THROTTLE_PROPERTY_NAME = "enableCatchUpThrottle";
+  public static final String CATCH_UP_MAX_EVENTS_PER_SECOND_PROPERTY_NAME = "catchUpMaxEventsPerSecond";
+  public static final String CATCH_UP_LAG_THRESHOLD_SECONDS_PROPERTY_NAME = "catchUpLagThresholdSeconds";
+  public static final String USE_DIRECT_BUFFERS_PROPERTY_NAME = "useDirectBuffers";
+  public static final String ENABLE_BATCH_DELIVERY_PROPERTY_NAME = "enableBatchDelivery";
+  public static final String MAX_BATCH_BYTES_PROPERTY_NAME = "maxBatchBytes";
+  public static final String MAX_BATCH_EVENTS_PROPERTY_NAME = "maxBatchEvents";
+  public static final String MAX_BATCH_LINGER_MS_PROPERTY_NAME = "maxBatchLingerMs";
+  public static final String ENABLE_DELIVERY_QUEUE_PROPERTY_NAME = "enableDeliveryQueue";
+  public static final String DELIVERY_QUEUE_CAPACITY_PROPERTY_NAME = "deliveryQueueCapacity";
+  public static final String OVERFLOW_POLICY_PROPERTY_NAME = "overflowPolicy";
+  public static final String OVERFLOW_SAMPLE_RATE_PROPERTY_NAME = "overflowSampleRate";
+  public static final String PREFETCH_COUNT_PROPERTY_NAME = "prefetchCount";
+  public static final String RECEIVE_MAX_BATCH_SIZE_PROPERTY_NAME = "receiveMaxBatchSize";
+  public static final String RECEIVE_TIMEOUT_SECONDS_PROPERTY_NAME = "receiveTimeoutSeconds";
+  public static final String ENABLE_ADAPTIVE_RECEIVE_PROPERTY_NAME = "enableAdaptiveReceive";
+  public static final String ADAPTIVE_MIN_PREFETCH_COUNT_PROPERTY_NAME = "adaptiveMinPrefetchCount";
+  public static final String ADAPTIVE_MAX_PREFETCH_COUNT_PROPERTY_NAME = "adaptiveMaxPrefetchCount";
+  public static final String ADAPTIVE_MIN_BATCH_SIZE_PROPERTY_NAME = "adaptiveMinBatchSize";
+  public static final String ADAPTIVE_MAX_BATCH_SIZE_PROPERTY_NAME = "adaptiveMaxBatchSize";
+  public static final String CLUSTERABLE_PROPERTY_NAME = "clusterable";
+  public static final String ENABLE_PARTITION_METRICS_PROPERTY_NAME = "enablePartitionMetrics";
+  public static final String LEASE_DURATION_SECONDS_PROPERTY_NAME = "leaseDurationSeconds";
+  public static final String LEASE_RENEW_INTERVAL_SECONDS_PROPERTY_NAME = "leaseRenewIntervalSeconds";
 
   // defaults
   public static final String DEFAULT_CONSUMER_GROUP_NAME = EventHubClient.DEFAULT_CONSUMER_GROUP_NAME;
   public static final String DEFAULT_EVENT_HUB_ACCESS_POLICY = "service";
+  public static final int DEFAULT_CHECKPOINT_INTERVAL_EVENTS = 1000;
+  public static final int DEFAULT_CHECKPOINT_INTERVAL_SECONDS = 10;
+  public static final int DEFAULT_CATCH_UP_MAX_EVENTS_PER_SECOND = 1000;
+  public static final int DEFAULT_CATCH_UP_LAG_THRESHOLD_SECONDS = 60;
+  public static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+  public static final int DEFAULT_MAX_BATCH_EVENTS = 1000;
+  public static final int DEFAULT_MAX_BATCH_LINGER_MS = 0;
+  public static final int DEFAULT_DELIVERY_QUEUE_CAPACITY = 10000;
+  public static final int DEFAULT_OVERFLOW_SAMPLE_RATE = 10;
+  public static final int DEFAULT_PREFETCH_COUNT = 300;
+  public static final int DEFAULT_RECEIVE_MAX_BATCH_SIZE = 10;
+  public static final int DEFAULT_RECEIVE_TIMEOUT_SECONDS = 60;
+  public static final int DEFAULT_ADAPTIVE_MIN_PREFETCH_COUNT = 10;
+  public static final int DEFAULT_ADAPTIVE_MAX_PREFETCH_COUNT = 999;
+  public static final int DEFAULT_ADAPTIVE_MIN_BATCH_SIZE = 1;
+  public static final int DEFAULT_ADAPTIVE_MAX_BATCH_SIZE = 1000;
+  public static final int DEFAULT_LEASE_DURATION_SECONDS = FileCheckpointLeaseManager.DEFAULT_LEASE_DURATION_MS / 1000;
+  public static final int DEFAULT_LEASE_RENEW_INTERVAL_SECONDS = FileCheckpointLeaseManager.DEFAULT_LEASE_RENEW_INTERVAL_MS / 1000;
 
   public AzureEventHubInboundTransportDefinition() {
     super(TransportType.INBOUND);
     try {
+      List<LabeledValue> checkpointStoreAllowedValues = new ArrayList<>(2);
+      checkpointStoreAllowedValues.add(new LabeledValue(CHECKPOINT_STORE_LBL_1, CHECKPOINT_STORE_AZURE_STORAGE));
+      checkpointStoreAllowedValues.add(new LabeledValue(CHECKPOINT_STORE_LBL_2, CHECKPOINT_STORE_LOCAL_FILE));
+
+      List<LabeledValue> startPositionAllowedValues = new ArrayList<>(3);
+      startPositionAllowedValues.add(new LabeledValue(START_POSITION_LBL_1, START_POSITION_LATEST));
+      startPositionAllowedValues.add(new LabeledValue(START_POSITION_LBL_2, START_POSITION_EARLIEST));
+      startPositionAllowedValues.add(new LabeledValue(START_POSITION_LBL_3, START_POSITION_TIMESTAMP));
+
+      List<LabeledValue> overflowPolicyAllowedValues = new ArrayList<>(4);
+      overflowPolicyAllowedValues.add(new LabeledValue(OVERFLOW_POLICY_LBL_1, OVERFLOW_POLICY_BLOCK));
+      overflowPolicyAllowedValues.add(new LabeledValue(OVERFLOW_POLICY_LBL_2, OVERFLOW_POLICY_DROP_OLDEST));
+      overflowPolicyAllowedValues.add(new LabeledValue(OVERFLOW_POLICY_LBL_3, OVERFLOW_POLICY_DROP_NEWEST));
+      overflowPolicyAllowedValues.add(new LabeledValue(OVERFLOW_POLICY_LBL_4, OVERFLOW_POLICY_SAMPLE));
+
       propertyDefinitions.put(EVENT_HUB_NAME_PROPERTY_NAME, new PropertyDefinition(EVENT_HUB_NAME_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-event-hub-transport.EVENT_HUB_NAME_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.EVENT_HUB_NAME_DESC}", true, false));
       propertyDefinitions.put(EVENT_HUB_CONSUMER_GROUP_NAME_PROPERTY_NAME, new PropertyDefinition(EVENT_HUB_CONSUMER_GROUP_NAME_PROPERTY_NAME, PropertyType.String, DEFAULT_CONSUMER_GROUP_NAME, "${com.esri.geoevent.transport.azure-event-hub-transport.EVENT_HUB_CONSUMER_GROUP_NAME_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.EVENT_HUB_CONSUMER_GROUP_NAME_DESC}", true, false));
       propertyDefinitions.put(PROVIDE_EVENT_HUB_CONNECTION_STRING_PROPERTY_NAME, new PropertyDefinition(PROVIDE_EVENT_HUB_CONNECTION_STRING_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.PROVIDE_EVENT_HUB_CONNECTION_STRING_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.PROVIDE_EVENT_HUB_CONNECTION_STRING_DESC}", true, false));
@@ -61,7 +150,38 @@ public class AzureEventHubInboundTransportDefinition extends TransportDefinition
       propertyDefinitions.put(EVENT_HUB_ENDPOINT_PROPERTY_NAME, new PropertyDefinition(EVENT_HUB_ENDPOINT_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-event-hub-transport.EVENT_HUB_ENDPOINT_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.EVENT_HUB_ENDPOINT_DESC}", "provideEventHubConnectionString=false", false, false));
       propertyDefinitions.put(EVENT_HUB_ACCESS_POLICY_PROPERTY_NAME, new PropertyDefinition(EVENT_HUB_ACCESS_POLICY_PROPERTY_NAME, PropertyType.String, DEFAULT_EVENT_HUB_ACCESS_POLICY, "${com.esri.geoevent.transport.azure-event-hub-transport.EVENT_HUB_ACCESS_POLICY_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.EVENT_HUB_ACCESS_POLICY_DESC}", "provideEventHubConnectionString=false", false, false));
       propertyDefinitions.put(EVENT_HUB_ACCESS_KEY_PROPERTY_NAME, new PropertyDefinition(EVENT_HUB_ACCESS_KEY_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-event-hub-transport.EVENT_HUB_ACCESS_KEY_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.EVENT_HUB_ACCESS_KEY_DESC}", "provideEventHubConnectionString=false", false, false));
-      propertyDefinitions.put(STORAGE_CONNECTION_STRING_PROPERTY_NAME, new PropertyDefinition(STORAGE_CONNECTION_STRING_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-event-hub-transport.STORAGE_CONNECTION_STRING_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.STORAGE_CONNECTION_STRING_DESC}", true, false));
+      propertyDefinitions.put(CHECKPOINT_STORE_PROPERTY_NAME, new PropertyDefinition(CHECKPOINT_STORE_PROPERTY_NAME, PropertyType.String, CHECKPOINT_STORE_AZURE_STORAGE, "${com.esri.geoevent.transport.azure-event-hub-transport.CHECKPOINT_STORE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.CHECKPOINT_STORE_DESC}", true, false, checkpointStoreAllowedValues));
+      propertyDefinitions.put(STORAGE_CONNECTION_STRING_PROPERTY_NAME, new PropertyDefinition(STORAGE_CONNECTION_STRING_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-event-hub-transport.STORAGE_CONNECTION_STRING_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.STORAGE_CONNECTION_STRING_DESC}", "checkpointStore=AZURE_STORAGE", true, false));
+      propertyDefinitions.put(CHECKPOINT_DIRECTORY_PROPERTY_NAME, new PropertyDefinition(CHECKPOINT_DIRECTORY_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-event-hub-transport.CHECKPOINT_DIRECTORY_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.CHECKPOINT_DIRECTORY_DESC}", "checkpointStore=LOCAL_FILE", true, false));
+      propertyDefinitions.put(LEASE_DURATION_SECONDS_PROPERTY_NAME, new PropertyDefinition(LEASE_DURATION_SECONDS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_LEASE_DURATION_SECONDS, "${com.esri.geoevent.transport.azure-event-hub-transport.LEASE_DURATION_SECONDS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.LEASE_DURATION_SECONDS_DESC}", "checkpointStore=LOCAL_FILE", false, false));
+      propertyDefinitions.put(LEASE_RENEW_INTERVAL_SECONDS_PROPERTY_NAME, new PropertyDefinition(LEASE_RENEW_INTERVAL_SECONDS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_LEASE_RENEW_INTERVAL_SECONDS, "${com.esri.geoevent.transport.azure-event-hub-transport.LEASE_RENEW_INTERVAL_SECONDS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.LEASE_RENEW_INTERVAL_SECONDS_DESC}", "checkpointStore=LOCAL_FILE", false, false));
+      propertyDefinitions.put(CLUSTERABLE_PROPERTY_NAME, new PropertyDefinition(CLUSTERABLE_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.CLUSTERABLE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.CLUSTERABLE_DESC}", false, false));
+      propertyDefinitions.put(ENABLE_PARTITION_METRICS_PROPERTY_NAME, new PropertyDefinition(ENABLE_PARTITION_METRICS_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_PARTITION_METRICS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_PARTITION_METRICS_DESC}", false, false));
+      propertyDefinitions.put(ENABLE_CHECKPOINTING_PROPERTY_NAME, new PropertyDefinition(ENABLE_CHECKPOINTING_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_CHECKPOINTING_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_CHECKPOINTING_DESC}", false, false));
+      propertyDefinitions.put(CHECKPOINT_INTERVAL_EVENTS_PROPERTY_NAME, new PropertyDefinition(CHECKPOINT_INTERVAL_EVENTS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_CHECKPOINT_INTERVAL_EVENTS, "${com.esri.geoevent.transport.azure-event-hub-transport.CHECKPOINT_INTERVAL_EVENTS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.CHECKPOINT_INTERVAL_EVENTS_DESC}", "enableCheckpointing=true", false, false));
+      propertyDefinitions.put(CHECKPOINT_INTERVAL_SECONDS_PROPERTY_NAME, new PropertyDefinition(CHECKPOINT_INTERVAL_SECONDS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_CHECKPOINT_INTERVAL_SECONDS, "${com.esri.geoevent.transport.azure-event-hub-transport.CHECKPOINT_INTERVAL_SECONDS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.CHECKPOINT_INTERVAL_SECONDS_DESC}", "enableCheckpointing=true", false, false));
+      propertyDefinitions.put(START_POSITION_PROPERTY_NAME, new PropertyDefinition(START_POSITION_PROPERTY_NAME, PropertyType.String, START_POSITION_LATEST, "${com.esri.geoevent.transport.azure-event-hub-transport.START_POSITION_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.START_POSITION_DESC}", true, false, startPositionAllowedValues));
+      propertyDefinitions.put(START_TIMESTAMP_PROPERTY_NAME, new PropertyDefinition(START_TIMESTAMP_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-event-hub-transport.START_TIMESTAMP_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.START_TIMESTAMP_DESC}", "startPosition=TIMESTAMP", true, false));
+      propertyDefinitions.put(ENABLE_CATCH_UP_THROTTLE_PROPERTY_NAME, new PropertyDefinition(ENABLE_CATCH_UP_THROTTLE_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_CATCH_UP_THROTTLE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_CATCH_UP_THROTTLE_DESC}", false, false));
+      propertyDefinitions.put(CATCH_UP_MAX_EVENTS_PER_SECOND_PROPERTY_NAME, new PropertyDefinition(CATCH_UP_MAX_EVENTS_PER_SECOND_PROPERTY_NAME, PropertyType.Integer, DEFAULT_CATCH_UP_MAX_EVENTS_PER_SECOND, "${com.esri.geoevent.transport.azure-event-hub-transport.CATCH_UP_MAX_EVENTS_PER_SECOND_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.CATCH_UP_MAX_EVENTS_PER_SECOND_DESC}", "enableCatchUpThrottle=true", false, false));
+      propertyDefinitions.put(CATCH_UP_LAG_THRESHOLD_SECONDS_PROPERTY_NAME, new PropertyDefinition(CATCH_UP_LAG_THRESHOLD_SECONDS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_CATCH_UP_LAG_THRESHOLD_SECONDS, "${com.esri.geoevent.transport.azure-event-hub-transport.CATCH_UP_LAG_THRESHOLD_SECONDS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.CATCH_UP_LAG_THRESHOLD_SECONDS_DESC}", "enableCatchUpThrottle=true", false, false));
+      propertyDefinitions.put(USE_DIRECT_BUFFERS_PROPERTY_NAME, new PropertyDefinition(USE_DIRECT_BUFFERS_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.USE_DIRECT_BUFFERS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.USE_DIRECT_BUFFERS_DESC}", false, false));
+      propertyDefinitions.put(ENABLE_BATCH_DELIVERY_PROPERTY_NAME, new PropertyDefinition(ENABLE_BATCH_DELIVERY_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_BATCH_DELIVERY_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_BATCH_DELIVERY_DESC}", false, false));
+      propertyDefinitions.put(MAX_BATCH_BYTES_PROPERTY_NAME, new PropertyDefinition(MAX_BATCH_BYTES_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_BATCH_BYTES, "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_BATCH_BYTES_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_BATCH_BYTES_DESC}", "enableBatchDelivery=true", false, false));
+      propertyDefinitions.put(MAX_BATCH_EVENTS_PROPERTY_NAME, new PropertyDefinition(MAX_BATCH_EVENTS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_BATCH_EVENTS, "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_BATCH_EVENTS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_BATCH_EVENTS_DESC}", "enableBatchDelivery=true", false, false));
+      propertyDefinitions.put(MAX_BATCH_LINGER_MS_PROPERTY_NAME, new PropertyDefinition(MAX_BATCH_LINGER_MS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_BATCH_LINGER_MS, "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_BATCH_LINGER_MS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_BATCH_LINGER_MS_DESC}", "enableBatchDelivery=true", false, false));
+      propertyDefinitions.put(ENABLE_DELIVERY_QUEUE_PROPERTY_NAME, new PropertyDefinition(ENABLE_DELIVERY_QUEUE_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_DELIVERY_QUEUE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_DELIVERY_QUEUE_DESC}", false, false));
+      propertyDefinitions.put(DELIVERY_QUEUE_CAPACITY_PROPERTY_NAME, new PropertyDefinition(DELIVERY_QUEUE_CAPACITY_PROPERTY_NAME, PropertyType.Integer, DEFAULT_DELIVERY_QUEUE_CAPACITY, "${com.esri.geoevent.transport.azure-event-hub-transport.DELIVERY_QUEUE_CAPACITY_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.DELIVERY_QUEUE_CAPACITY_DESC}", "enableDeliveryQueue=true", false, false));
+      propertyDefinitions.put(OVERFLOW_POLICY_PROPERTY_NAME, new PropertyDefinition(OVERFLOW_POLICY_PROPERTY_NAME, PropertyType.String, OVERFLOW_POLICY_BLOCK, "${com.esri.geoevent.transport.azure-event-hub-transport.OVERFLOW_POLICY_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.OVERFLOW_POLICY_DESC}", "enableDeliveryQueue=true", false, false, overflowPolicyAllowedValues));
+      propertyDefinitions.put(OVERFLOW_SAMPLE_RATE_PROPERTY_NAME, new PropertyDefinition(OVERFLOW_SAMPLE_RATE_PROPERTY_NAME, PropertyType.Integer, DEFAULT_OVERFLOW_SAMPLE_RATE, "${com.esri.geoevent.transport.azure-event-hub-transport.OVERFLOW_SAMPLE_RATE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.OVERFLOW_SAMPLE_RATE_DESC}", "overflowPolicy=SAMPLE", false, false));
+      propertyDefinitions.put(PREFETCH_COUNT_PROPERTY_NAME, new PropertyDefinition(PREFETCH_COUNT_PROPERTY_NAME, PropertyType.Integer, DEFAULT_PREFETCH_COUNT, "${com.esri.geoevent.transport.azure-event-hub-transport.PREFETCH_COUNT_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.PREFETCH_COUNT_DESC}", false, false));
+      propertyDefinitions.put(RECEIVE_MAX_BATCH_SIZE_PROPERTY_NAME, new PropertyDefinition(RECEIVE_MAX_BATCH_SIZE_PROPERTY_NAME, PropertyType.Integer, DEFAULT_RECEIVE_MAX_BATCH_SIZE, "${com.esri.geoevent.transport.azure-event-hub-transport.RECEIVE_MAX_BATCH_SIZE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.RECEIVE_MAX_BATCH_SIZE_DESC}", false, false));
+      propertyDefinitions.put(RECEIVE_TIMEOUT_SECONDS_PROPERTY_NAME, new PropertyDefinition(RECEIVE_TIMEOUT_SECONDS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_RECEIVE_TIMEOUT_SECONDS, "${com.esri.geoevent.transport.azure-event-hub-transport.RECEIVE_TIMEOUT_SECONDS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.RECEIVE_TIMEOUT_SECONDS_DESC}", false, false));
+      propertyDefinitions.put(ENABLE_ADAPTIVE_RECEIVE_PROPERTY_NAME, new PropertyDefinition(ENABLE_ADAPTIVE_RECEIVE_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_ADAPTIVE_RECEIVE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_ADAPTIVE_RECEIVE_DESC}", false, false));
+      propertyDefinitions.put(ADAPTIVE_MIN_PREFETCH_COUNT_PROPERTY_NAME, new PropertyDefinition(ADAPTIVE_MIN_PREFETCH_COUNT_PROPERTY_NAME, PropertyType.Integer, DEFAULT_ADAPTIVE_MIN_PREFETCH_COUNT, "${com.esri.geoevent.transport.azure-event-hub-transport.ADAPTIVE_MIN_PREFETCH_COUNT_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ADAPTIVE_MIN_PREFETCH_COUNT_DESC}", "enableAdaptiveReceive=true", false, false));
+      propertyDefinitions.put(ADAPTIVE_MAX_PREFETCH_COUNT_PROPERTY_NAME, new PropertyDefinition(ADAPTIVE_MAX_PREFETCH_COUNT_PROPERTY_NAME, PropertyType.Integer, DEFAULT_ADAPTIVE_MAX_PREFETCH_COUNT, "${com.esri.geoevent.transport.azure-event-hub-transport.ADAPTIVE_MAX_PREFETCH_COUNT_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ADAPTIVE_MAX_PREFETCH_COUNT_DESC}", "enableAdaptiveReceive=true", false, false));
+      propertyDefinitions.put(ADAPTIVE_MIN_BATCH_SIZE_PROPERTY_NAME, new PropertyDefinition(ADAPTIVE_MIN_BATCH_SIZE_PROPERTY_NAME, PropertyType.Integer, DEFAULT_ADAPTIVE_MIN_BATCH_SIZE, "${com.esri.geoevent.transport.azure-event-hub-transport.ADAPTIVE_MIN_BATCH_SIZE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ADAPTIVE_MIN_BATCH_SIZE_DESC}", "enableAdaptiveReceive=true", false, false));
+      propertyDefinitions.put(ADAPTIVE_MAX_BATCH_SIZE_PROPERTY_NAME, new PropertyDefinition(ADAPTIVE_MAX_BATCH_SIZE_PROPERTY_NAME, PropertyType.Integer, DEFAULT_ADAPTIVE_MAX_BATCH_SIZE, "${com.esri.geoevent.transport.azure-event-hub-transport.ADAPTIVE_MAX_BATCH_SIZE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ADAPTIVE_MAX_BATCH_SIZE_DESC}", "enableAdaptiveReceive=true", false, false));
     } catch (PropertyException error) {
       LOGGER.error("ERROR_LOADING_TRANSPORT_DEFINITION", error);
       throw new RuntimeException(error);
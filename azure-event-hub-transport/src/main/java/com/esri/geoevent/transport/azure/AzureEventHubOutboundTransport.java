@@ -34,9 +34,22 @@ import com.esri.ges.transport.OutboundTransportBase;
 import com.esri.ges.transport.TransportDefinition;
 import com.microsoft.azure.eventhubs.EventData;
 import com.microsoft.azure.eventhubs.EventHubClient;
+import com.microsoft.azure.eventhubs.PartitionSender;
 
+import java.io.File;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AzureEventHubOutboundTransport extends OutboundTransportBase implements GeoEventAwareTransport {
   // logger
@@ -44,11 +57,54 @@ public class AzureEventHubOutboundTransport extends OutboundTransportBase implem
 
   // connection properties
   private String connectionString = "";
+  private boolean enableAsyncSend = false;
+  private int maxInFlightSends = AzureEventHubOutboundTransportDefinition.DEFAULT_MAX_IN_FLIGHT_SENDS;
+  private boolean enableBatching = false;
+  private int maxBatchEvents = AzureEventHubOutboundTransportDefinition.DEFAULT_MAX_BATCH_EVENTS;
+  private int maxBatchBytes = AzureEventHubOutboundTransportDefinition.DEFAULT_MAX_BATCH_BYTES;
+  private int batchLingerMs = AzureEventHubOutboundTransportDefinition.DEFAULT_BATCH_LINGER_MS;
+  private String partitionKeyField = "";
+  private boolean usePartitionSenders = false;
+  private int partitionCount = AzureEventHubOutboundTransportDefinition.DEFAULT_PARTITION_COUNT;
+  private int clientPoolSize = AzureEventHubOutboundTransportDefinition.DEFAULT_CLIENT_POOL_SIZE;
+  private String poolDispatch = AzureEventHubOutboundTransportDefinition.POOL_DISPATCH_ROUND_ROBIN;
+  private boolean enableSpillJournal = false;
+  private String spillDirectory = "";
+  private int spillMaxMegabytes = AzureEventHubOutboundTransportDefinition.DEFAULT_SPILL_MAX_MEGABYTES;
+  private int spillReplayRate = AzureEventHubOutboundTransportDefinition.DEFAULT_SPILL_REPLAY_RATE;
+  private boolean enableAdaptiveRate = false;
+  private int initialSendRate = AzureEventHubOutboundTransportDefinition.DEFAULT_INITIAL_SEND_RATE;
+  private int minSendRate = AzureEventHubOutboundTransportDefinition.DEFAULT_MIN_SEND_RATE;
+  private int maxSendRate = AzureEventHubOutboundTransportDefinition.DEFAULT_MAX_SEND_RATE;
+  private int maxSendRetries = AzureEventHubOutboundTransportDefinition.DEFAULT_MAX_SEND_RETRIES;
+  private boolean enableSendMetrics = false;
 
   private volatile boolean propertiesNeedUpdating = false;
 
-  // event hub client
-  EventHubClient ehClient = null;
+  // event hub clients
+  EventHubClientPool clientPool = null;
+
+  // send lanes, a single one on the client or one per partition sender
+  private static final long IN_FLIGHT_DRAIN_TIMEOUT_SECONDS = 30L;
+  private static final int MAX_KEYED_BATCHERS = 1024;
+  private volatile List<SendLane> lanes = Collections.emptyList();
+  private final AtomicInteger nextLane = new AtomicInteger();
+  private final AtomicLong sentCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  private ScheduledExecutorService lingerScheduler = null;
+
+  // send rate following the throttling of the Event Hub, and retries of throttled sends
+  private volatile AdaptiveRateLimiter rateLimiter = null;
+  private ScheduledExecutorService retryScheduler = null;
+  // sends waiting for their next attempt, with the error that made them retry
+  private final Map<CompletableFuture<Void>, Throwable> waitingRetries = new ConcurrentHashMap<>();
+
+  // send statistics, replaced on every setup and published over JMX when enabled
+  private static final String METRICS_TYPE = "EventHubOutbound";
+  private volatile OutboundMetrics metrics = new OutboundMetrics(METRICS_TYPE, "");
+
+  // events that could not be sent, replayed in order once the Event Hub can be reached again
+  private volatile SpillJournal journal = null;
 
   public AzureEventHubOutboundTransport(TransportDefinition definition) throws ComponentException {
     super(definition);
@@ -67,6 +123,18 @@ public class AzureEventHubOutboundTransport extends OutboundTransportBase implem
     setup();
   }
 
+  @Override
+  public synchronized void stop() {
+    if (getRunningState() == RunningState.STOPPING)
+      return;
+
+    setRunningState(RunningState.STOPPING);
+    // sends what the lanes still hold, closes the journal and the clients and unregisters the metrics
+    cleanup();
+    setErrorMessage(null);
+    setRunningState(RunningState.STOPPED);
+  }
+
   public void readProperties() {
     try {
       boolean somethingChanged = false;
@@ -79,6 +147,68 @@ public class AzureEventHubOutboundTransport extends OutboundTransportBase implem
           somethingChanged = true;
         }
       }
+      if (hasProperty(AzureEventHubOutboundTransportDefinition.ENABLE_ASYNC_SEND_PROPERTY_NAME))
+        enableAsyncSend = (Boolean) getProperty(AzureEventHubOutboundTransportDefinition.ENABLE_ASYNC_SEND_PROPERTY_NAME).getValue();
+      if (enableAsyncSend && hasProperty(AzureEventHubOutboundTransportDefinition.MAX_IN_FLIGHT_SENDS_PROPERTY_NAME))
+        maxInFlightSends = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.MAX_IN_FLIGHT_SENDS_PROPERTY_NAME).getValue();
+      if (hasProperty(AzureEventHubOutboundTransportDefinition.ENABLE_BATCHING_PROPERTY_NAME))
+        enableBatching = (Boolean) getProperty(AzureEventHubOutboundTransportDefinition.ENABLE_BATCHING_PROPERTY_NAME).getValue();
+      if (enableBatching) {
+        if (hasProperty(AzureEventHubOutboundTransportDefinition.MAX_BATCH_EVENTS_PROPERTY_NAME))
+          maxBatchEvents = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.MAX_BATCH_EVENTS_PROPERTY_NAME).getValue();
+        if (hasProperty(AzureEventHubOutboundTransportDefinition.MAX_BATCH_BYTES_PROPERTY_NAME))
+          maxBatchBytes = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.MAX_BATCH_BYTES_PROPERTY_NAME).getValue();
+        if (hasProperty(AzureEventHubOutboundTransportDefinition.BATCH_LINGER_MS_PROPERTY_NAME))
+          batchLingerMs = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.BATCH_LINGER_MS_PROPERTY_NAME).getValue();
+      }
+      if (hasProperty(AzureEventHubOutboundTransportDefinition.PARTITION_KEY_FIELD_PROPERTY_NAME)) {
+        String newPartitionKeyField = getProperty(AzureEventHubOutboundTransportDefinition.PARTITION_KEY_FIELD_PROPERTY_NAME).getValueAsString();
+        partitionKeyField = (newPartitionKeyField != null) ? newPartitionKeyField.trim() : "";
+      }
+      if (hasProperty(AzureEventHubOutboundTransportDefinition.USE_PARTITION_SENDERS_PROPERTY_NAME))
+        usePartitionSenders = (Boolean) getProperty(AzureEventHubOutboundTransportDefinition.USE_PARTITION_SENDERS_PROPERTY_NAME).getValue();
+      if (usePartitionSenders && hasProperty(AzureEventHubOutboundTransportDefinition.PARTITION_COUNT_PROPERTY_NAME))
+        partitionCount = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.PARTITION_COUNT_PROPERTY_NAME).getValue();
+      if (hasProperty(AzureEventHubOutboundTransportDefinition.CLIENT_POOL_SIZE_PROPERTY_NAME)) {
+        int newClientPoolSize = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.CLIENT_POOL_SIZE_PROPERTY_NAME).getValue();
+        if (clientPoolSize != newClientPoolSize) {
+          clientPoolSize = newClientPoolSize;
+          somethingChanged = true;
+        }
+      }
+      if (clientPoolSize > 1 && hasProperty(AzureEventHubOutboundTransportDefinition.POOL_DISPATCH_PROPERTY_NAME)) {
+        String newPoolDispatch = getProperty(AzureEventHubOutboundTransportDefinition.POOL_DISPATCH_PROPERTY_NAME).getValueAsString();
+        if (!poolDispatch.equals(newPoolDispatch)) {
+          poolDispatch = newPoolDispatch;
+          somethingChanged = true;
+        }
+      }
+      if (hasProperty(AzureEventHubOutboundTransportDefinition.ENABLE_SPILL_JOURNAL_PROPERTY_NAME))
+        enableSpillJournal = (Boolean) getProperty(AzureEventHubOutboundTransportDefinition.ENABLE_SPILL_JOURNAL_PROPERTY_NAME).getValue();
+      if (enableSpillJournal) {
+        if (hasProperty(AzureEventHubOutboundTransportDefinition.SPILL_DIRECTORY_PROPERTY_NAME)) {
+          String newSpillDirectory = getProperty(AzureEventHubOutboundTransportDefinition.SPILL_DIRECTORY_PROPERTY_NAME).getValueAsString();
+          spillDirectory = (newSpillDirectory != null) ? newSpillDirectory.trim() : "";
+        }
+        if (hasProperty(AzureEventHubOutboundTransportDefinition.SPILL_MAX_MEGABYTES_PROPERTY_NAME))
+          spillMaxMegabytes = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.SPILL_MAX_MEGABYTES_PROPERTY_NAME).getValue();
+        if (hasProperty(AzureEventHubOutboundTransportDefinition.SPILL_REPLAY_RATE_PROPERTY_NAME))
+          spillReplayRate = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.SPILL_REPLAY_RATE_PROPERTY_NAME).getValue();
+      }
+      if (hasProperty(AzureEventHubOutboundTransportDefinition.ENABLE_ADAPTIVE_RATE_PROPERTY_NAME))
+        enableAdaptiveRate = (Boolean) getProperty(AzureEventHubOutboundTransportDefinition.ENABLE_ADAPTIVE_RATE_PROPERTY_NAME).getValue();
+      if (enableAdaptiveRate) {
+        if (hasProperty(AzureEventHubOutboundTransportDefinition.INITIAL_SEND_RATE_PROPERTY_NAME))
+          initialSendRate = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.INITIAL_SEND_RATE_PROPERTY_NAME).getValue();
+        if (hasProperty(AzureEventHubOutboundTransportDefinition.MIN_SEND_RATE_PROPERTY_NAME))
+          minSendRate = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.MIN_SEND_RATE_PROPERTY_NAME).getValue();
+        if (hasProperty(AzureEventHubOutboundTransportDefinition.MAX_SEND_RATE_PROPERTY_NAME))
+          maxSendRate = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.MAX_SEND_RATE_PROPERTY_NAME).getValue();
+        if (hasProperty(AzureEventHubOutboundTransportDefinition.MAX_SEND_RETRIES_PROPERTY_NAME))
+          maxSendRetries = (Integer) getProperty(AzureEventHubOutboundTransportDefinition.MAX_SEND_RETRIES_PROPERTY_NAME).getValue();
+      }
+      if (hasProperty(AzureEventHubOutboundTransportDefinition.ENABLE_SEND_METRICS_PROPERTY_NAME))
+        enableSendMetrics = (Boolean) getProperty(AzureEventHubOutboundTransportDefinition.ENABLE_SEND_METRICS_PROPERTY_NAME).getValue();
       propertiesNeedUpdating = somethingChanged;
     } catch (Exception ex) {
       LOGGER.error("INIT_ERROR", ex.getMessage());
@@ -99,12 +229,43 @@ public class AzureEventHubOutboundTransport extends OutboundTransportBase implem
         propertiesNeedUpdating = false;
       }
 
+      // send what a previous run left behind before the lanes are replaced
+      closeLanes();
+      sentCount.set(0L);
+      failedCount.set(0L);
+      metrics = new OutboundMetrics(METRICS_TYPE, OutboundMetrics.connectionStringValue(connectionString, "EntityPath"));
+      if (enableSendMetrics)
+        metrics.register();
+
       // setup Event Hub
-      ehClient = EventHubClient.createFromConnectionStringSync(connectionString);
-      if (ehClient == null) {
+      try {
+        // a restart reconnects, the previous pool is closed first so its connections and replacer do not linger
+        closeClientPool();
+        clientPool = new EventHubClientPool(connectionString, clientPoolSize, EventHubClientPool.Dispatch.valueOf(poolDispatch));
+        openLanes();
+      } catch (IllegalStateException error) {
+        // the partition count does not match the Event Hub
+        runningState = RunningState.ERROR;
+        errorMessage = error.getMessage();
+        LOGGER.error(errorMessage, error);
+      } catch (Exception error) {
         runningState = RunningState.ERROR;
         errorMessage = LOGGER.translate("FAILED_TO_CREATE_EH_CLIENT", connectionString);
-        LOGGER.error(errorMessage);
+        LOGGER.error(errorMessage, error);
+      }
+
+      if (runningState == RunningState.STARTED && enableSpillJournal) {
+        File directory = getJournalDirectory();
+        try {
+          SpillJournal newJournal = new SpillJournal(directory, spillMaxMegabytes * 1024L * 1024L, spillReplayRate, this::replay);
+          newJournal.open();
+          journal = newJournal;
+          metrics.setJournalPendingCount(newJournal::getPendingCount);
+        } catch (Exception error) {
+          runningState = RunningState.ERROR;
+          errorMessage = LOGGER.translate("JOURNAL_OPEN_ERROR", directory.getAbsolutePath(), error.getMessage());
+          LOGGER.error(errorMessage, error);
+        }
       }
 
       setErrorMessage(errorMessage);
@@ -118,10 +279,19 @@ public class AzureEventHubOutboundTransport extends OutboundTransportBase implem
   }
 
   protected void cleanup() {
-    // clean up the event hub client
-    if (ehClient != null) {
+    // let pending batches and in-flight sends complete on the client they were started on
+    closeLanes();
+
+    // clean up the event hub clients
+    closeClientPool();
+  }
+
+  private void closeClientPool() {
+    EventHubClientPool pool = clientPool;
+    clientPool = null;
+    if (pool != null) {
       try {
-        ehClient.close();
+        pool.close();
       } catch (Exception error) {
         ;
       }
@@ -141,12 +311,25 @@ public class AzureEventHubOutboundTransport extends OutboundTransportBase implem
 
       try {
         // Send Event to an Event Hub
-        String messageStr = new String(buffer.array(), StandardCharsets.UTF_8);
-
-        if (ehClient != null) {
-          byte[] bytes = messageStr.getBytes(StandardCharsets.UTF_8); // "UTF_8"
+        List<SendLane> currentLanes = lanes;
+        if (clientPool != null && !currentLanes.isEmpty()) {
+          byte[] bytes = OutboundPayload.toBytes(buffer);
           EventData eventData = new EventData(bytes);
-          ehClient.sendSync(eventData);
+          String partitionKey = getPartitionKey(geoEvent);
+          SendLane lane;
+          if (currentLanes.size() == 1) {
+            lane = currentLanes.get(0);
+          } else {
+            // the same key always lands on the same partition, keeping its events in order
+            lane = currentLanes.get((partitionKey != null) ? Math.floorMod(partitionKey.hashCode(), currentLanes.size()) : Math.floorMod(nextLane.getAndIncrement(), currentLanes.size()));
+            partitionKey = null;
+          }
+          SpillJournal currentJournal = journal;
+          if (currentJournal != null && currentJournal.isFailing())
+            // queue up behind the events that failed, until a send succeeds again
+            lane.spill(Collections.singletonList(eventData), partitionKey);
+          else
+            lane.send(eventData, bytes.length, partitionKey);
         } else {
           LOGGER.warn("FAILED_TO_SEND_INVALID_EH_CONNECTION", connectionString);
         }
@@ -161,4 +344,474 @@ public class AzureEventHubOutboundTransport extends OutboundTransportBase implem
     }
   }
 
+  private String getPartitionKey(GeoEvent geoEvent) {
+    if (partitionKeyField.isEmpty())
+      return null;
+    Object value = geoEvent.getField(partitionKeyField);
+    return (value != null) ? value.toString() : null;
+  }
+
+  private File getJournalDirectory() {
+    File root = spillDirectory.isEmpty() ? new File(System.getProperty("java.io.tmpdir"), "azure-event-hub-journal") : new File(spillDirectory);
+    // every output keeps its own journal, even when several write to the same Event Hub
+    return new File(root, SpillJournal.directoryName(getId(), connectionString));
+  }
+
+  /**
+   * Sends a journaled event the way it was originally meant to go: with its partition key through
+   * the client, or through the partition sender it was assigned to.
+   */
+  private void replay(String key, byte[] payload) throws Exception {
+    List<SendLane> currentLanes = lanes;
+    if (currentLanes.isEmpty())
+      throw new IllegalStateException(LOGGER.translate("FAILED_TO_SEND_INVALID_EH_CONNECTION", connectionString));
+
+    List<EventData> events = Collections.singletonList(new EventData(payload));
+    OutboundMetrics sendMetrics = metrics;
+    long start = sendMetrics.started();
+    try {
+      if (currentLanes.size() == 1) {
+        currentLanes.get(0).sendSync(events, key);
+      } else {
+        int lane;
+        try {
+          lane = Math.floorMod(Integer.parseInt(key), currentLanes.size());
+        } catch (NumberFormatException e) {
+          lane = Math.floorMod(nextLane.getAndIncrement(), currentLanes.size());
+        }
+        currentLanes.get(lane).sendSync(events, null);
+      }
+    } catch (Exception error) {
+      sendMetrics.completed(start, 1, payload.length, statusCode(error), false);
+      throw error;
+    }
+    sendMetrics.completed(start, 1, payload.length, OutboundMetrics.STATUS_OK, true);
+    sentCount.incrementAndGet();
+  }
+
+  private void openLanes() throws Exception {
+    List<SendLane> newLanes = new ArrayList<>();
+    if (usePartitionSenders) {
+      openPartitionSenders(newLanes, Math.max(1, partitionCount));
+    } else {
+      newLanes.add(new SendLane(0, null));
+    }
+
+    if (enableAdaptiveRate) {
+      AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(initialSendRate, minSendRate, maxSendRate);
+      metrics.setPermittedRate(limiter::getRate);
+      rateLimiter = limiter;
+      if (enableAsyncSend)
+        retryScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    if (enableBatching) {
+      final long lingerMs = Math.max(1, batchLingerMs);
+      lingerScheduler = Executors.newSingleThreadScheduledExecutor();
+      lingerScheduler.scheduleWithFixedDelay(() -> {
+        for (SendLane lane : newLanes)
+          lane.flushIfLingering(lingerMs);
+      }, lingerMs, Math.max(1, lingerMs / 2), TimeUnit.MILLISECONDS);
+    }
+    lanes = newLanes;
+  }
+
+  /**
+   * Creates a lane per partition and checks the partition count against the Event Hub, which only
+   * accepts senders for the partitions it has. Throws an IllegalStateException when they differ.
+   */
+  private void openPartitionSenders(List<SendLane> newLanes, int count) throws Exception {
+    try {
+      for (int partition = 0; partition < count; partition++) {
+        PartitionSender sender;
+        try {
+          sender = clientPool.get(partition).getClient().createPartitionSenderSync(String.valueOf(partition));
+        } catch (Exception error) {
+          throw new IllegalStateException(LOGGER.translate("PARTITION_SENDER_ERROR", partition, count, error.getMessage()), error);
+        }
+        newLanes.add(new SendLane(partition, sender));
+      }
+
+      PartitionSender extra = null;
+      try {
+        extra = clientPool.get(count).getClient().createPartitionSenderSync(String.valueOf(count));
+      } catch (Exception expected) {
+        // the partition after the last one does not exist
+      }
+      if (extra != null) {
+        closeQuietly(extra);
+        throw new IllegalStateException(LOGGER.translate("PARTITION_COUNT_TOO_LOW", count));
+      }
+    } catch (Exception error) {
+      for (SendLane lane : newLanes)
+        closeQuietly(lane.partitionSender);
+      newLanes.clear();
+      throw error;
+    }
+  }
+
+  private static void closeQuietly(PartitionSender sender) {
+    try {
+      sender.closeSync();
+    } catch (Exception ignored) {
+    }
+  }
+
+  private void closeLanes() {
+    List<SendLane> currentLanes = lanes;
+    lanes = Collections.emptyList();
+    if (lingerScheduler != null) {
+      // let a linger flush in progress finish, interrupting it would lose the batch it is sending
+      lingerScheduler.shutdown();
+      try {
+        if (!lingerScheduler.awaitTermination(IN_FLIGHT_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+          lingerScheduler.shutdownNow();
+      } catch (InterruptedException e) {
+        lingerScheduler.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+      lingerScheduler = null;
+    }
+    for (SendLane lane : currentLanes)
+      lane.close();
+    if (retryScheduler != null) {
+      retryScheduler.shutdownNow();
+      retryScheduler = null;
+    }
+    // sends still waiting for a retry fail with their last error, which journals or counts them
+    for (CompletableFuture<Void> completion : waitingRetries.keySet()) {
+      Throwable error = waitingRetries.remove(completion);
+      if (error != null)
+        completion.completeExceptionally(error);
+    }
+    rateLimiter = null;
+
+    // whatever failed while closing the lanes is in the journal by now
+    SpillJournal currentJournal = journal;
+    journal = null;
+    if (currentJournal != null)
+      currentJournal.close();
+    metrics.unregister();
+  }
+
+  private void sent(int count) {
+    sentCount.addAndGet(count);
+    SpillJournal currentJournal = journal;
+    if (currentJournal != null)
+      currentJournal.sendSucceeded();
+  }
+
+  private static String statusCode(Throwable error) {
+    return (error != null) ? AdaptiveRateLimiter.unwrap(error).getClass().getSimpleName() : OutboundMetrics.STATUS_OK;
+  }
+
+  @SuppressWarnings("deprecation")
+  private static long bodyLength(List<EventData> events) {
+    long length = 0L;
+    for (EventData eventData : events)
+      length += eventData.getBodyLength();
+    return length;
+  }
+
+  @Override
+  public String getStatusDetails() {
+    List<SendLane> currentLanes = lanes;
+    if (getRunningState() == RunningState.ERROR || !(enableAsyncSend || enableBatching || usePartitionSenders || clientPoolSize > 1 || enableSpillJournal || enableAdaptiveRate || enableSendMetrics) || currentLanes.isEmpty())
+      return super.getStatusDetails();
+    int inFlight = 0;
+    for (SendLane lane : currentLanes)
+      inFlight += lane.getInFlight();
+    String status = LOGGER.translate("SEND_STATUS", sentCount.get(), failedCount.get(), inFlight);
+    EventHubClientPool pool = clientPool;
+    if (pool != null && pool.getSize() > 1)
+      status += " " + LOGGER.translate("POOL_STATUS", pool.getHealthyCount(), pool.getSize(), pool.getReplacedCount());
+    AdaptiveRateLimiter limiter = rateLimiter;
+    if (limiter != null)
+      status += " " + LOGGER.translate("RATE_STATUS", (long) limiter.getRate(), limiter.getThrottleCount(), metrics.getRetryCount());
+    SpillJournal currentJournal = journal;
+    if (currentJournal != null)
+      status += " " + LOGGER.translate("JOURNAL_STATUS", currentJournal.getPendingCount(), currentJournal.getReplayedCount(), currentJournal.getDroppedCount());
+    return status;
+  }
+
+  /**
+   * Sends either through the client or through a single partition sender, with its own in-flight
+   * window and batcher.
+   */
+  private final class SendLane {
+    private final int index;
+    private final PartitionSender partitionSender;
+    private final Semaphore window;
+    private final int windowSize;
+    private final EventDataBatcher batcher;
+    private final ConcurrentHashMap<String, EventDataBatcher> keyedBatchers;
+
+    SendLane(int index, PartitionSender partitionSender) {
+      this.index = index;
+      this.partitionSender = partitionSender;
+      this.windowSize = enableAsyncSend ? Math.max(1, maxInFlightSends) : 0;
+      this.window = enableAsyncSend ? new Semaphore(windowSize) : null;
+      this.batcher = enableBatching ? new EventDataBatcher(maxBatchBytes, maxBatchEvents, batch -> sendEvents(batch, null)) : null;
+      // a partition sender ignores partition keys, so only the client batches per key
+      this.keyedBatchers = (enableBatching && partitionSender == null) ? new ConcurrentHashMap<>() : null;
+    }
+
+    void send(EventData eventData, int length, String partitionKey) throws Exception {
+      if (partitionKey == null || partitionSender != null) {
+        if (batcher != null)
+          batcher.add(eventData, length);
+        else
+          sendEvents(Collections.singletonList(eventData), null);
+        return;
+      }
+      // a batch shares one partition key, which is added to every event in it
+      EventDataBatcher keyedBatcher = getKeyedBatcher(partitionKey);
+      if (keyedBatcher != null)
+        keyedBatcher.add(eventData, length + partitionKey.length());
+      else
+        sendEvents(Collections.singletonList(eventData), partitionKey);
+    }
+
+    /**
+     * Returns the batcher of a partition key, or null once the lane batches as many keys as it may.
+     * Keys beyond the limit are never batched, so the events of each key stay in order.
+     */
+    private EventDataBatcher getKeyedBatcher(String partitionKey) {
+      if (keyedBatchers == null)
+        return null;
+      EventDataBatcher keyedBatcher = keyedBatchers.get(partitionKey);
+      if (keyedBatcher == null && keyedBatchers.size() < MAX_KEYED_BATCHERS)
+        keyedBatcher = keyedBatchers.computeIfAbsent(partitionKey, key -> new EventDataBatcher(maxBatchBytes, maxBatchEvents, batch -> sendEvents(batch, key)));
+      return keyedBatcher;
+    }
+
+    private void sendEvents(List<EventData> events, String partitionKey) throws Exception {
+      if (window != null) {
+        // only blocks the sending thread while the window is full
+        try {
+          window.acquire();
+        } catch (InterruptedException error) {
+          // nothing was sent, the events are journaled or dropped like a failed send
+          if (!spill(events, partitionKey) && journal == null)
+            throw error;
+          Thread.currentThread().interrupt();
+          return;
+        }
+        OutboundMetrics sendMetrics = metrics;
+        long start = sendMetrics.started();
+        sendAsyncWithRetry(events, partitionKey, 0).whenComplete((result, error) -> {
+          window.release();
+          sendMetrics.completed(start, events.size(), bodyLength(events), statusCode(error), error == null);
+          if (error == null) {
+            sent(events.size());
+          } else if (!spill(events, partitionKey)) {
+            LOGGER.warn("SEND_ERROR", error.toString());
+          }
+        });
+        return;
+      }
+
+      OutboundMetrics sendMetrics = metrics;
+      long start = sendMetrics.started();
+      try {
+        sendSync(events, partitionKey);
+      } catch (Exception error) {
+        sendMetrics.completed(start, events.size(), bodyLength(events), statusCode(error), false);
+        // without a journal the failure stops the connector, a full journal drops the events
+        if (!spill(events, partitionKey) && journal == null)
+          throw error;
+        return;
+      }
+      sendMetrics.completed(start, events.size(), bodyLength(events), OutboundMetrics.STATUS_OK, true);
+      sent(events.size());
+    }
+
+    void sendSync(List<EventData> events, String partitionKey) throws Exception {
+      for (int attempt = 0; ; attempt++) {
+        acquirePermits(events.size());
+        EventHubClientPool.Connection connection = acquireConnection();
+        boolean healthy = false;
+        try {
+          if (partitionSender != null)
+            partitionSender.sendSync(events);
+          else if (partitionKey != null)
+            connection.getClient().sendSync(events, partitionKey);
+          else
+            connection.getClient().sendSync(events);
+          healthy = true;
+          return;
+        } catch (Exception error) {
+          // a throttling Event Hub says nothing about the health of the connection
+          healthy = throttled(error);
+          if (!shouldRetry(error, attempt))
+            throw error;
+          metrics.retried();
+          Thread.sleep(AdaptiveRateLimiter.backoffMillis(attempt));
+        } finally {
+          if (connection != null)
+            connection.completed(healthy);
+        }
+      }
+    }
+
+    private CompletableFuture<Void> sendAsyncWithRetry(List<EventData> events, String partitionKey, int attempt) {
+      CompletableFuture<Void> completion = new CompletableFuture<>();
+      EventHubClientPool.Connection connection;
+      try {
+        acquirePermits(events.size());
+        connection = acquireConnection();
+      } catch (Exception e) {
+        completion.completeExceptionally(e);
+        return completion;
+      }
+      sendAsync(connection, events, partitionKey).whenComplete((result, error) -> {
+        boolean throttled = (error != null) && throttled(error);
+        if (connection != null)
+          connection.completed(error == null || throttled);
+        if (error == null) {
+          completion.complete(null);
+          return;
+        }
+        ScheduledExecutorService scheduler = retryScheduler;
+        if (scheduler == null || !shouldRetry(error, attempt)) {
+          completion.completeExceptionally(error);
+          return;
+        }
+        metrics.retried();
+        waitingRetries.put(completion, error);
+        try {
+          scheduler.schedule(() -> {
+            // closeLanes() may have failed it already
+            if (waitingRetries.remove(completion) == null)
+              return;
+            sendAsyncWithRetry(events, partitionKey, attempt + 1).whenComplete((retryResult, retryError) -> {
+              if (retryError == null)
+                completion.complete(null);
+              else
+                completion.completeExceptionally(retryError);
+            });
+          }, AdaptiveRateLimiter.backoffMillis(attempt), TimeUnit.MILLISECONDS);
+        } catch (Exception rejected) {
+          // shutting down
+          if (waitingRetries.remove(completion) != null)
+            completion.completeExceptionally(error);
+        }
+      });
+      return completion;
+    }
+
+    private void acquirePermits(int permits) throws InterruptedException {
+      AdaptiveRateLimiter limiter = rateLimiter;
+      if (limiter != null)
+        limiter.acquire(permits);
+    }
+
+    private boolean throttled(Throwable error) {
+      AdaptiveRateLimiter limiter = rateLimiter;
+      if (limiter == null || !AdaptiveRateLimiter.isThrottled(error))
+        return false;
+      limiter.throttled();
+      metrics.throttled();
+      return true;
+    }
+
+    private boolean shouldRetry(Throwable error, int attempt) {
+      if (rateLimiter == null || attempt >= maxSendRetries)
+        return false;
+      return AdaptiveRateLimiter.isThrottled(error) || AdaptiveRateLimiter.isTransient(error);
+    }
+
+    /**
+     * Hands events to the journal, keyed so that they are replayed to the same partition. Events
+     * the journal rejects, or all of them when there is no journal, are counted as failed and
+     * dropped. Returns whether every event was journaled.
+     */
+    boolean spill(List<EventData> events, String partitionKey) {
+      SpillJournal currentJournal = journal;
+      int rejected = events.size();
+      if (currentJournal != null) {
+        String key = (partitionSender != null) ? String.valueOf(index) : partitionKey;
+        for (EventData eventData : events) {
+          if (currentJournal.append(key, eventData.getBytes()))
+            rejected--;
+        }
+      }
+      if (rejected > 0) {
+        failedCount.addAndGet(rejected);
+        metrics.dropped(rejected);
+      }
+      return rejected == 0;
+    }
+
+    private EventHubClientPool.Connection acquireConnection() {
+      // a partition sender is bound to the client it was created on and is not rotated
+      if (partitionSender != null)
+        return null;
+      EventHubClientPool.Connection connection = clientPool.acquire();
+      connection.started();
+      return connection;
+    }
+
+    private CompletableFuture<Void> sendAsync(EventHubClientPool.Connection connection, List<EventData> events, String partitionKey) {
+      try {
+        if (partitionSender != null)
+          return partitionSender.send(events);
+        EventHubClient client = connection.getClient();
+        return (partitionKey != null) ? client.send(events, partitionKey) : client.send(events);
+      } catch (Exception e) {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+      }
+    }
+
+    void flushIfLingering(long lingerMs) {
+      flushIfLingering(batcher, lingerMs);
+      if (keyedBatchers != null) {
+        for (EventDataBatcher keyedBatcher : keyedBatchers.values())
+          flushIfLingering(keyedBatcher, lingerMs);
+      }
+    }
+
+    private void flushIfLingering(EventDataBatcher lingering, long lingerMs) {
+      try {
+        lingering.flushIfLingering(lingerMs);
+      } catch (Exception e) {
+        // the events of the batch are already counted as failed
+        LOGGER.warn("SEND_ERROR", e.toString());
+      }
+    }
+
+    private void flush(EventDataBatcher open) {
+      try {
+        open.flush();
+      } catch (Exception e) {
+        LOGGER.warn("SEND_ERROR", e.toString());
+      }
+    }
+
+    int getInFlight() {
+      return (window != null) ? windowSize - window.availablePermits() : 0;
+    }
+
+    void close() {
+      if (batcher != null)
+        flush(batcher);
+      if (keyedBatchers != null) {
+        for (EventDataBatcher keyedBatcher : keyedBatchers.values())
+          flush(keyedBatcher);
+      }
+      if (window != null) {
+        try {
+          if (window.tryAcquire(windowSize, IN_FLIGHT_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            window.release(windowSize);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (partitionSender != null)
+        closeQuietly(partitionSender);
+    }
+  }
+
 }
@@ -23,6 +23,7 @@
  */
 package com.esri.geoevent.transport.azure;
 
+import com.esri.ges.core.property.LabeledValue;
 import com.esri.ges.core.property.PropertyDefinition;
 import com.esri.ges.core.property.PropertyException;
 import com.esri.ges.core.property.PropertyType;
@@ -30,18 +31,87 @@ import com.esri.ges.framework.i18n.BundleLogger;
 import com.esri.ges.framework.i18n.BundleLoggerFactory;
 import com.esri.ges.transport.TransportDefinitionBase;
 import com.esri.ges.transport.TransportType;
+import com.microsoft.azure.servicebus.ClientConstants;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class AzureEventHubOutboundTransportDefinition extends TransportDefinitionBase {
   // logger
   private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(AzureEventHubOutboundTransportDefinition.class);
 
+  private static final String POOL_DISPATCH_LBL_1 = "${com.esri.geoevent.transport.azure-event-hub-transport.POOL_DISPATCH_ROUND_ROBIN_LBL}";
+  public  static final String POOL_DISPATCH_ROUND_ROBIN = "ROUND_ROBIN";
+  private static final String POOL_DISPATCH_LBL_2 = "${com.esri.geoevent.transport.azure-event-hub-transport.POOL_DISPATCH_LEAST_LOADED_LBL}";
+  public  static final String POOL_DISPATCH_LEAST_LOADED = "LEAST_LOADED";
+
   // property names
   public static final String CONNECTION_STRING_PROPERTY_NAME = "connectionString";
+  public static final String ENABLE_ASYNC_SEND_PROPERTY_NAME = "enableAsyncSend";
+  public static final String MAX_IN_FLIGHT_SENDS_PROPERTY_NAME = "maxInFlightSends";
+  public static final String ENABLE_BATCHING_PROPERTY_NAME = "enableBatching";
+  public static final String MAX_BATCH_EVENTS_PROPERTY_NAME = "maxBatchEvents";
+  public static final String MAX_BATCH_BYTES_PROPERTY_NAME = "maxBatchBytes";
+  public static final String BATCH_LINGER_MS_PROPERTY_NAME = "batchLingerMs";
+  public static final String PARTITION_KEY_FIELD_PROPERTY_NAME = "partitionKeyField";
+  public static final String USE_PARTITION_SENDERS_PROPERTY_NAME = "usePartitionSenders";
+  public static final String PARTITION_COUNT_PROPERTY_NAME = "partitionCount";
+  public static final String CLIENT_POOL_SIZE_PROPERTY_NAME = "clientPoolSize";
+  public static final String POOL_DISPATCH_PROPERTY_NAME = "poolDispatch";
+  public static final String ENABLE_SPILL_JOURNAL_PROPERTY_NAME = "enableSpillJournal";
+  public static final String SPILL_DIRECTORY_PROPERTY_NAME = "spillDirectory";
+  public static final String SPILL_MAX_MEGABYTES_PROPERTY_NAME = "spillMaxMegabytes";
+  public static final String SPILL_REPLAY_RATE_PROPERTY_NAME = "spillReplayRate";
+  public static final String ENABLE_ADAPTIVE_RATE_PROPERTY_NAME = "enableAdaptiveRate";
+  public static final String INITIAL_SEND_RATE_PROPERTY_NAME = "initialSendRate";
+  public static final String MIN_SEND_RATE_PROPERTY_NAME = "minSendRate";
+  public static final String MAX_SEND_RATE_PROPERTY_NAME = "maxSendRate";
+  public static final String MAX_SEND_RETRIES_PROPERTY_NAME = "maxSendRetries";
+  public static final String ENABLE_SEND_METRICS_PROPERTY_NAME = "enableSendMetrics";
+
+  // defaults
+  public static final int DEFAULT_MAX_IN_FLIGHT_SENDS = 100;
+  public static final int DEFAULT_MAX_BATCH_EVENTS = 500;
+  public static final int DEFAULT_MAX_BATCH_BYTES = ClientConstants.MAX_MESSAGE_LENGTH_BYTES;
+  public static final int DEFAULT_BATCH_LINGER_MS = 50;
+  public static final int DEFAULT_PARTITION_COUNT = 4;
+  public static final int DEFAULT_CLIENT_POOL_SIZE = 1;
+  public static final int DEFAULT_SPILL_MAX_MEGABYTES = 1024;
+  public static final int DEFAULT_SPILL_REPLAY_RATE = 1000;
+  public static final int DEFAULT_INITIAL_SEND_RATE = 1000;
+  public static final int DEFAULT_MIN_SEND_RATE = 10;
+  public static final int DEFAULT_MAX_SEND_RATE = 10000;
+  public static final int DEFAULT_MAX_SEND_RETRIES = 5;
 
   public AzureEventHubOutboundTransportDefinition() {
     super(TransportType.OUTBOUND);
     try {
+      List<LabeledValue> poolDispatchAllowedValues = new ArrayList<>(2);
+      poolDispatchAllowedValues.add(new LabeledValue(POOL_DISPATCH_LBL_1, POOL_DISPATCH_ROUND_ROBIN));
+      poolDispatchAllowedValues.add(new LabeledValue(POOL_DISPATCH_LBL_2, POOL_DISPATCH_LEAST_LOADED));
+
       propertyDefinitions.put(CONNECTION_STRING_PROPERTY_NAME, new PropertyDefinition(CONNECTION_STRING_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-event-hub-transport.CONNECTION_STR_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.CONNECTION_STR_DESC}", true, false));
+      propertyDefinitions.put(ENABLE_ASYNC_SEND_PROPERTY_NAME, new PropertyDefinition(ENABLE_ASYNC_SEND_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_ASYNC_SEND_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_ASYNC_SEND_DESC}", false, false));
+      propertyDefinitions.put(MAX_IN_FLIGHT_SENDS_PROPERTY_NAME, new PropertyDefinition(MAX_IN_FLIGHT_SENDS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_IN_FLIGHT_SENDS, "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_IN_FLIGHT_SENDS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_IN_FLIGHT_SENDS_DESC}", "enableAsyncSend=true", false, false));
+      propertyDefinitions.put(ENABLE_BATCHING_PROPERTY_NAME, new PropertyDefinition(ENABLE_BATCHING_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_BATCHING_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_BATCHING_DESC}", false, false));
+      propertyDefinitions.put(MAX_BATCH_EVENTS_PROPERTY_NAME, new PropertyDefinition(MAX_BATCH_EVENTS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_BATCH_EVENTS, "${com.esri.geoevent.transport.azure-event-hub-transport.OUT_MAX_BATCH_EVENTS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.OUT_MAX_BATCH_EVENTS_DESC}", "enableBatching=true", false, false));
+      propertyDefinitions.put(MAX_BATCH_BYTES_PROPERTY_NAME, new PropertyDefinition(MAX_BATCH_BYTES_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_BATCH_BYTES, "${com.esri.geoevent.transport.azure-event-hub-transport.OUT_MAX_BATCH_BYTES_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.OUT_MAX_BATCH_BYTES_DESC}", "enableBatching=true", false, false));
+      propertyDefinitions.put(BATCH_LINGER_MS_PROPERTY_NAME, new PropertyDefinition(BATCH_LINGER_MS_PROPERTY_NAME, PropertyType.Integer, DEFAULT_BATCH_LINGER_MS, "${com.esri.geoevent.transport.azure-event-hub-transport.BATCH_LINGER_MS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.BATCH_LINGER_MS_DESC}", "enableBatching=true", false, false));
+      propertyDefinitions.put(PARTITION_KEY_FIELD_PROPERTY_NAME, new PropertyDefinition(PARTITION_KEY_FIELD_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-event-hub-transport.PARTITION_KEY_FIELD_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.PARTITION_KEY_FIELD_DESC}", false, false));
+      propertyDefinitions.put(USE_PARTITION_SENDERS_PROPERTY_NAME, new PropertyDefinition(USE_PARTITION_SENDERS_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.USE_PARTITION_SENDERS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.USE_PARTITION_SENDERS_DESC}", false, false));
+      propertyDefinitions.put(PARTITION_COUNT_PROPERTY_NAME, new PropertyDefinition(PARTITION_COUNT_PROPERTY_NAME, PropertyType.Integer, DEFAULT_PARTITION_COUNT, "${com.esri.geoevent.transport.azure-event-hub-transport.PARTITION_COUNT_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.PARTITION_COUNT_DESC}", "usePartitionSenders=true", true, false));
+      propertyDefinitions.put(CLIENT_POOL_SIZE_PROPERTY_NAME, new PropertyDefinition(CLIENT_POOL_SIZE_PROPERTY_NAME, PropertyType.Integer, DEFAULT_CLIENT_POOL_SIZE, "${com.esri.geoevent.transport.azure-event-hub-transport.CLIENT_POOL_SIZE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.CLIENT_POOL_SIZE_DESC}", false, false));
+      propertyDefinitions.put(POOL_DISPATCH_PROPERTY_NAME, new PropertyDefinition(POOL_DISPATCH_PROPERTY_NAME, PropertyType.String, POOL_DISPATCH_ROUND_ROBIN, "${com.esri.geoevent.transport.azure-event-hub-transport.POOL_DISPATCH_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.POOL_DISPATCH_DESC}", false, false, poolDispatchAllowedValues));
+      propertyDefinitions.put(ENABLE_SPILL_JOURNAL_PROPERTY_NAME, new PropertyDefinition(ENABLE_SPILL_JOURNAL_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_SPILL_JOURNAL_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_SPILL_JOURNAL_DESC}", false, false));
+      propertyDefinitions.put(SPILL_DIRECTORY_PROPERTY_NAME, new PropertyDefinition(SPILL_DIRECTORY_PROPERTY_NAME, PropertyType.String, null, "${com.esri.geoevent.transport.azure-event-hub-transport.SPILL_DIRECTORY_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.SPILL_DIRECTORY_DESC}", "enableSpillJournal=true", false, false));
+      propertyDefinitions.put(SPILL_MAX_MEGABYTES_PROPERTY_NAME, new PropertyDefinition(SPILL_MAX_MEGABYTES_PROPERTY_NAME, PropertyType.Integer, DEFAULT_SPILL_MAX_MEGABYTES, "${com.esri.geoevent.transport.azure-event-hub-transport.SPILL_MAX_MEGABYTES_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.SPILL_MAX_MEGABYTES_DESC}", "enableSpillJournal=true", false, false));
+      propertyDefinitions.put(SPILL_REPLAY_RATE_PROPERTY_NAME, new PropertyDefinition(SPILL_REPLAY_RATE_PROPERTY_NAME, PropertyType.Integer, DEFAULT_SPILL_REPLAY_RATE, "${com.esri.geoevent.transport.azure-event-hub-transport.SPILL_REPLAY_RATE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.SPILL_REPLAY_RATE_DESC}", "enableSpillJournal=true", false, false));
+      propertyDefinitions.put(ENABLE_ADAPTIVE_RATE_PROPERTY_NAME, new PropertyDefinition(ENABLE_ADAPTIVE_RATE_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_ADAPTIVE_RATE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_ADAPTIVE_RATE_DESC}", false, false));
+      propertyDefinitions.put(INITIAL_SEND_RATE_PROPERTY_NAME, new PropertyDefinition(INITIAL_SEND_RATE_PROPERTY_NAME, PropertyType.Integer, DEFAULT_INITIAL_SEND_RATE, "${com.esri.geoevent.transport.azure-event-hub-transport.INITIAL_SEND_RATE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.INITIAL_SEND_RATE_DESC}", "enableAdaptiveRate=true", false, false));
+      propertyDefinitions.put(MIN_SEND_RATE_PROPERTY_NAME, new PropertyDefinition(MIN_SEND_RATE_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MIN_SEND_RATE, "${com.esri.geoevent.transport.azure-event-hub-transport.MIN_SEND_RATE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.MIN_SEND_RATE_DESC}", "enableAdaptiveRate=true", false, false));
+      propertyDefinitions.put(MAX_SEND_RATE_PROPERTY_NAME, new PropertyDefinition(MAX_SEND_RATE_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_SEND_RATE, "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_SEND_RATE_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_SEND_RATE_DESC}", "enableAdaptiveRate=true", false, false));
+      propertyDefinitions.put(MAX_SEND_RETRIES_PROPERTY_NAME, new PropertyDefinition(MAX_SEND_RETRIES_PROPERTY_NAME, PropertyType.Integer, DEFAULT_MAX_SEND_RETRIES, "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_SEND_RETRIES_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.MAX_SEND_RETRIES_DESC}", "enableAdaptiveRate=true", false, false));
+      propertyDefinitions.put(ENABLE_SEND_METRICS_PROPERTY_NAME, new PropertyDefinition(ENABLE_SEND_METRICS_PROPERTY_NAME, PropertyType.Boolean, new Boolean(false), "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_SEND_METRICS_LBL}", "${com.esri.geoevent.transport.azure-event-hub-transport.ENABLE_SEND_METRICS_DESC}", false, false));
     } catch (PropertyException error) {
       LOGGER.error("ERROR_LOADING_TRANSPORT_DEFINITION", error);
       throw new RuntimeException(error);
@@ -0,0 +1,193 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A bounded ring buffer between a producer and a dedicated consumer thread. When the buffer is
+ * full the configured {@link OverflowPolicy} decides whether the producer waits or which item is
+ * shed. The consumer is handed everything that has queued up since its last call, in order.
+ */
+public class BoundedDeliveryQueue<T> {
+  // logger
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(BoundedDeliveryQueue.class);
+
+  private static final long POLL_INTERVAL_MS = 100L;
+  private static final int CLOSE_TIMEOUT_SECONDS = 5;
+
+  public enum OverflowPolicy {
+    // the producer waits for room, pushing back on whoever feeds it
+    BLOCK,
+    // the oldest queued item is dropped to make room
+    DROP_OLDEST,
+    // the new item is dropped
+    DROP_NEWEST,
+    // one in every sampleRate new items replaces the oldest queued item, the others are dropped
+    SAMPLE
+  }
+
+  private final ArrayBlockingQueue<T> queue;
+  private final OverflowPolicy policy;
+  private final int sampleRate;
+  private final int maxDrain;
+  private final Consumer<List<T>> consumer;
+  private final Thread thread;
+  private volatile boolean running = true;
+  // only touched by the producer, the queue is fed from a single thread
+  private long overflowCount = 0L;
+
+  // statistics
+  private final AtomicLong enqueuedCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  public BoundedDeliveryQueue(String name, int capacity, OverflowPolicy policy, int sampleRate, int maxDrain, Consumer<List<T>> consumer) {
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    this.policy = policy;
+    this.sampleRate = Math.max(1, sampleRate);
+    this.maxDrain = Math.max(1, maxDrain);
+    this.consumer = consumer;
+    this.thread = new Thread(this::drain, name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queues an item, returns false if the item was dropped or the queue has been closed.
+   */
+  public boolean offer(T item) throws InterruptedException {
+    if (!running)
+      return false;
+
+    if (queue.offer(item)) {
+      enqueuedCount.incrementAndGet();
+      return true;
+    }
+
+    switch (policy) {
+      case BLOCK:
+        while (running) {
+          if (queue.offer(item, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+            enqueuedCount.incrementAndGet();
+            return true;
+          }
+        }
+        return false;
+      case DROP_NEWEST:
+        droppedCount.incrementAndGet();
+        return false;
+      case SAMPLE:
+        if (overflowCount++ % sampleRate != 0) {
+          droppedCount.incrementAndGet();
+          return false;
+        }
+        return replaceOldest(item);
+      default:
+        return replaceOldest(item);
+    }
+  }
+
+  public int getDepth() {
+    return queue.size();
+  }
+
+  public int getCapacity() {
+    return queue.size() + queue.remainingCapacity();
+  }
+
+  public long getEnqueuedCount() {
+    return enqueuedCount.get();
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Stops the consumer thread. With <code>drain</code> set, whatever is still queued is handed to
+   * the consumer on the calling thread first, otherwise it is discarded. A consumer that is still
+   * busy after the close timeout is interrupted and the queued items are discarded, since draining
+   * them here would run two consumers at once.
+   */
+  public void close(boolean drain) {
+    running = false;
+    // let a draining consumer finish what it has taken, only interrupt one whose items are unwanted
+    if (!drain)
+      thread.interrupt();
+    try {
+      thread.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      thread.interrupt();
+      LOGGER.warn("QUEUE_CLOSE_TIMEOUT", CLOSE_TIMEOUT_SECONDS, queue.size());
+    } else if (drain) {
+      List<T> remaining = new ArrayList<>();
+      while (queue.drainTo(remaining, maxDrain) > 0) {
+        consumer.accept(remaining);
+        remaining.clear();
+      }
+    }
+    queue.clear();
+  }
+
+  private boolean replaceOldest(T item) {
+    while (!queue.offer(item)) {
+      if (queue.poll() != null)
+        droppedCount.incrementAndGet();
+    }
+    enqueuedCount.incrementAndGet();
+    return true;
+  }
+
+  private void drain() {
+    List<T> items = new ArrayList<>(maxDrain);
+    while (running) {
+      try {
+        T first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (first == null)
+          continue;
+        items.add(first);
+        queue.drainTo(items, maxDrain - 1);
+        consumer.accept(items);
+      } catch (InterruptedException e) {
+        break;
+      } catch (Exception e) {
+        LOGGER.error("UNEXPECTED_ERROR", e);
+      } finally {
+        items.clear();
+      }
+    }
+  }
+}
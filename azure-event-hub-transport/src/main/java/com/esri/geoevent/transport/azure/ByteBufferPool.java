@@ -0,0 +1,112 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small pool of reusable ByteBuffers, bucketed by power-of-two capacity.
+ * Buffers are handed out cleared and must be returned with {@link #release(ByteBuffer)}
+ * once the consumer is done with them. The pool keeps at most maxPooledBytes of idle
+ * capacity across all buckets; buffers released beyond that are left to the garbage collector.
+ */
+public class ByteBufferPool {
+  private static final int MIN_CAPACITY_SHIFT = 10; // 1KB
+  private static final int MAX_CAPACITY_SHIFT = 24; // 16MB
+
+  private final boolean direct;
+  private final long maxPooledBytes;
+  private final List<ConcurrentLinkedQueue<ByteBuffer>> buckets;
+  private final AtomicLong pooledBytes = new AtomicLong();
+
+  public ByteBufferPool(boolean direct, long maxPooledBytes) {
+    this.direct = direct;
+    this.maxPooledBytes = maxPooledBytes;
+    int bucketCount = MAX_CAPACITY_SHIFT - MIN_CAPACITY_SHIFT + 1;
+    buckets = new ArrayList<>(bucketCount);
+    for (int i = 0; i < bucketCount; i++)
+      buckets.add(new ConcurrentLinkedQueue<>());
+  }
+
+  public boolean isDirect() {
+    return direct;
+  }
+
+  public ByteBuffer acquire(int minCapacity) {
+    int bucket = bucketFor(minCapacity);
+    if (bucket < 0)
+      return allocate(minCapacity);
+
+    ByteBuffer buffer = buckets.get(bucket).poll();
+    if (buffer == null)
+      return allocate(1 << (bucket + MIN_CAPACITY_SHIFT));
+
+    pooledBytes.addAndGet(-buffer.capacity());
+    buffer.clear();
+    return buffer;
+  }
+
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || buffer.isDirect() != direct)
+      return;
+
+    int capacity = buffer.capacity();
+    int bucket = bucketFor(capacity);
+    // only buffers this pool handed out (exact power-of-two sizes) go back in
+    if (bucket < 0 || capacity != (1 << (bucket + MIN_CAPACITY_SHIFT)))
+      return;
+
+    if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+      pooledBytes.addAndGet(-capacity);
+      return;
+    }
+    buffer.clear();
+    buckets.get(bucket).offer(buffer);
+  }
+
+  public void clear() {
+    for (ConcurrentLinkedQueue<ByteBuffer> bucket : buckets) {
+      ByteBuffer buffer;
+      while ((buffer = bucket.poll()) != null)
+        pooledBytes.addAndGet(-buffer.capacity());
+    }
+  }
+  private ByteBuffer allocate(int capacity) {
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  private static int bucketFor(int capacity) {
+    if (capacity <= (1 << MIN_CAPACITY_SHIFT))
+      return 0;
+    int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+    if (shift > MAX_CAPACITY_SHIFT)
+      return -1;
+    return shift - MIN_CAPACITY_SHIFT;
+  }
+}
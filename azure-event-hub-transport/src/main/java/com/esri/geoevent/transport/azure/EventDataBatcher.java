@@ -0,0 +1,87 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import com.microsoft.azure.eventhubs.EventData;
+import com.microsoft.azure.servicebus.ClientConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects outbound events into batches that fit a single Event Hub message. A batch is sent once
+ * adding another event would exceed the byte or event limit, or when it has lingered long enough.
+ */
+public class EventDataBatcher {
+  // AMQP framing added to each event in a batch, on top of its body and properties
+  private static final int EVENT_OVERHEAD_BYTES = 64;
+
+  public interface BatchSender {
+    void send(List<EventData> batch) throws Exception;
+  }
+
+  private final int maxBytes;
+  private final int maxEvents;
+  private final BatchSender sender;
+  private List<EventData> batch = null;
+  private int batchBytes = 0;
+  private long batchStartTime = 0L;
+
+  public EventDataBatcher(int maxBytes, int maxEvents, BatchSender sender) {
+    // the batch envelope needs room for its own header
+    this.maxBytes = Math.max(EVENT_OVERHEAD_BYTES, maxBytes - ClientConstants.MAX_EVENTHUB_AMQP_HEADER_SIZE_BYTES);
+    this.maxEvents = Math.max(1, maxEvents);
+    this.sender = sender;
+  }
+
+  public synchronized void add(EventData event, int bodyLength) throws Exception {
+    int size = bodyLength + EVENT_OVERHEAD_BYTES;
+    if (batch != null && batchBytes + size > maxBytes)
+      flush();
+    if (batch == null) {
+      batch = new ArrayList<>(Math.min(maxEvents, 1024));
+      batchBytes = 0;
+      batchStartTime = System.currentTimeMillis();
+    }
+    batch.add(event);
+    batchBytes += size;
+    if (batch.size() >= maxEvents || batchBytes >= maxBytes)
+      flush();
+  }
+
+  public synchronized void flushIfLingering(long lingerMs) throws Exception {
+    if (batch != null && System.currentTimeMillis() - batchStartTime >= lingerMs)
+      flush();
+  }
+
+  public synchronized void flush() throws Exception {
+    if (batch == null)
+      return;
+    List<EventData> events = batch;
+    batch = null;
+    batchBytes = 0;
+    sender.send(events);
+  }
+}
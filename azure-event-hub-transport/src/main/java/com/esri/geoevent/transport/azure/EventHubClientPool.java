@@ -0,0 +1,246 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.microsoft.azure.eventhubs.EventHubClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed number of EventHubClients, each with its own AMQP connection. Sends are spread over the
+ * clients in turn or to the client with the fewest sends in flight. A client that keeps failing is
+ * taken out of rotation and replaced by a new connection in the background.
+ */
+public class EventHubClientPool {
+  // logger
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(EventHubClientPool.class);
+
+  private static final int MAX_CONSECUTIVE_FAILURES = 3;
+  // how long a replaced client stays open for the sends still running on it
+  private static final long RETIRE_DELAY_SECONDS = 30L;
+
+  public enum Dispatch {
+    ROUND_ROBIN,
+    LEAST_LOADED
+  }
+
+  private final String connectionString;
+  private final Dispatch dispatch;
+  private final List<Connection> connections;
+  private final AtomicInteger next = new AtomicInteger();
+  private final AtomicLong replacedCount = new AtomicLong();
+  // replaced clients that are still open for the sends running on them
+  private final List<EventHubClient> retired = new ArrayList<>();
+  private final ScheduledThreadPoolExecutor replacer = new ScheduledThreadPoolExecutor(1);
+  private volatile boolean closed = false;
+
+  public EventHubClientPool(String connectionString, int size, Dispatch dispatch) throws Exception {
+    this.connectionString = connectionString;
+    this.dispatch = dispatch;
+    this.connections = new ArrayList<>(Math.max(1, size));
+    // retired clients still waiting for their delayed close are closed by close() instead
+    replacer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    try {
+      for (int i = 0; i < Math.max(1, size); i++)
+        connections.add(new Connection(EventHubClient.createFromConnectionStringSync(connectionString)));
+    } catch (Exception e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Picks the connection for the next send, preferring healthy ones.
+   */
+  public Connection acquire() {
+    int size = connections.size();
+    if (size == 1)
+      return connections.get(0);
+
+    if (dispatch == Dispatch.LEAST_LOADED) {
+      Connection best = null;
+      for (Connection connection : connections) {
+        if (connection.isHealthy() && (best == null || connection.inFlight.get() < best.inFlight.get()))
+          best = connection;
+      }
+      if (best != null)
+        return best;
+    } else {
+      for (int attempt = 0; attempt < size; attempt++) {
+        Connection connection = connections.get(Math.floorMod(next.getAndIncrement(), size));
+        if (connection.isHealthy())
+          return connection;
+      }
+    }
+    // nothing healthy, keep sending so failures surface instead of stalling
+    return connections.get(Math.floorMod(next.getAndIncrement(), size));
+  }
+
+  /**
+   * The connection at a fixed position, e.g. to spread partition senders over the pool.
+   */
+  public Connection get(int index) {
+    return connections.get(Math.floorMod(index, connections.size()));
+  }
+
+  public int getSize() {
+    return connections.size();
+  }
+
+  public int getHealthyCount() {
+    int healthy = 0;
+    for (Connection connection : connections) {
+      if (connection.isHealthy())
+        healthy++;
+    }
+    return healthy;
+  }
+
+  public long getReplacedCount() {
+    return replacedCount.get();
+  }
+
+  public void close() {
+    closed = true;
+    replacer.shutdown();
+    try {
+      // a replacement in progress finishes swapping its client before the clients are closed
+      if (!replacer.awaitTermination(RETIRE_DELAY_SECONDS, TimeUnit.SECONDS))
+        replacer.shutdownNow();
+    } catch (InterruptedException e) {
+      replacer.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    // retired clients waiting to be closed are closed right away
+    List<EventHubClient> retiredClients;
+    synchronized (retired) {
+      retiredClients = new ArrayList<>(retired);
+      retired.clear();
+    }
+    for (EventHubClient retiredClient : retiredClients)
+      closeClient(retiredClient);
+    for (Connection connection : connections)
+      closeClient(connection.client);
+  }
+
+  private void retire(EventHubClient client) {
+    synchronized (retired) {
+      retired.add(client);
+    }
+    try {
+      replacer.schedule(() -> {
+        boolean stillRetired;
+        synchronized (retired) {
+          stillRetired = retired.remove(client);
+        }
+        if (stillRetired)
+          closeClient(client);
+      }, RETIRE_DELAY_SECONDS, TimeUnit.SECONDS);
+    } catch (Exception rejected) {
+      // closing, close() closes what is in the retired list
+    }
+  }
+
+  private void replace(Connection connection) {
+    if (closed || !connection.replacing.compareAndSet(false, true))
+      return;
+    try {
+      replacer.execute(() -> {
+        try {
+          EventHubClient newClient = EventHubClient.createFromConnectionStringSync(connectionString);
+          if (closed) {
+            closeClient(newClient);
+            return;
+          }
+          EventHubClient oldClient = connection.client;
+          connection.client = newClient;
+          connection.consecutiveFailures.set(0);
+          replacedCount.incrementAndGet();
+          LOGGER.info("CONNECTION_REPLACED");
+          retire(oldClient);
+        } catch (Exception e) {
+          LOGGER.warn("CONNECTION_REPLACEMENT_ERROR", e.toString());
+        } finally {
+          connection.replacing.set(false);
+        }
+      });
+    } catch (Exception rejected) {
+      // closing
+      connection.replacing.set(false);
+    }
+  }
+
+  private static void closeClient(EventHubClient client) {
+    if (client == null)
+      return;
+    try {
+      client.close();
+    } catch (Exception ignored) {
+    }
+  }
+
+  public final class Connection {
+    private volatile EventHubClient client;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean replacing = new AtomicBoolean();
+
+    Connection(EventHubClient client) {
+      this.client = client;
+    }
+
+    public EventHubClient getClient() {
+      return client;
+    }
+
+    public boolean isHealthy() {
+      return consecutiveFailures.get() < MAX_CONSECUTIVE_FAILURES && !replacing.get();
+    }
+
+    /**
+     * To be called before every send on this connection, and matched by {@link #completed(boolean)}.
+     */
+    public void started() {
+      inFlight.incrementAndGet();
+    }
+
+    public void completed(boolean success) {
+      inFlight.decrementAndGet();
+      if (success) {
+        consecutiveFailures.set(0);
+      } else if (consecutiveFailures.incrementAndGet() >= MAX_CONSECUTIVE_FAILURES) {
+        replace(this);
+      }
+    }
+  }
+}
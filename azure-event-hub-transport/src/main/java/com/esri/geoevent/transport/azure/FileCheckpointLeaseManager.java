@@ -0,0 +1,384 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import com.microsoft.azure.eventprocessorhost.EventProcessorHost;
+import com.microsoft.azure.eventprocessorhost.ICheckpointManager;
+import com.microsoft.azure.eventprocessorhost.ILeaseManager;
+import com.microsoft.azure.eventprocessorhost.Lease;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Checkpoint and lease store kept in plain files under a local (or shared) directory, one
+ * directory per event hub and consumer group. Intended for running the inbound transport
+ * without an Azure Storage account, e.g. for load testing.
+ */
+public class FileCheckpointLeaseManager implements ICheckpointManager, ILeaseManager {
+  public static final int DEFAULT_LEASE_DURATION_MS = 30000;
+  public static final int DEFAULT_LEASE_RENEW_INTERVAL_MS = 10000;
+
+  private static final String LEASE_FILE_PREFIX = "lease-";
+  private static final String CHECKPOINT_FILE_PREFIX = "checkpoint-";
+  private static final String LOCK_FILE_NAME = ".lock";
+
+  private static final String OWNER_KEY = "owner";
+  private static final String TOKEN_KEY = "token";
+  private static final String EPOCH_KEY = "epoch";
+  private static final String EXPIRES_KEY = "expires";
+  private static final String OFFSET_KEY = "offset";
+  private static final String SEQUENCE_NUMBER_KEY = "sequenceNumber";
+
+  private final Path storeDirectory;
+  private final String hostName;
+  private final int leaseDurationMs;
+  private final int leaseRenewIntervalMs;
+
+  public FileCheckpointLeaseManager(String baseDirectory, String eventHubPath, String consumerGroupName, String hostName) {
+    this(baseDirectory, eventHubPath, consumerGroupName, hostName, DEFAULT_LEASE_DURATION_MS, DEFAULT_LEASE_RENEW_INTERVAL_MS);
+  }
+
+  public FileCheckpointLeaseManager(String baseDirectory, String eventHubPath, String consumerGroupName, String hostName, int leaseDurationMs, int leaseRenewIntervalMs) {
+    this.storeDirectory = Paths.get(baseDirectory, eventHubPath, consumerGroupName);
+    this.hostName = hostName;
+    this.leaseDurationMs = leaseDurationMs;
+    this.leaseRenewIntervalMs = leaseRenewIntervalMs;
+  }
+
+  // ICheckpointManager
+
+  @Override
+  public Future<Boolean> checkpointStoreExists() {
+    return leaseStoreExists();
+  }
+
+  @Override
+  public Future<Boolean> createCheckpointStoreIfNotExists() {
+    return createLeaseStoreIfNotExists();
+  }
+
+  @Override
+  public Future<Boolean> deleteCheckpointStore() {
+    return deleteLeaseStore();
+  }
+
+  @Override
+  public Future<Checkpoint> getCheckpoint(String partitionId) {
+    return call(() -> {
+      Properties props = read(checkpointFile(partitionId));
+      if (props == null || props.getProperty(OFFSET_KEY) == null)
+        return null;
+      return new Checkpoint(partitionId, props.getProperty(OFFSET_KEY), Long.parseLong(props.getProperty(SEQUENCE_NUMBER_KEY, "0")));
+    });
+  }
+
+  @Override
+  public Future<Checkpoint> createCheckpointIfNotExists(String partitionId) {
+    // nothing is persisted until the first real checkpoint so that getCheckpoint keeps
+    // returning null and the host falls back to the initial offset provider
+    return CompletableFuture.completedFuture(new Checkpoint(partitionId));
+  }
+
+  @Override
+  public Future<Void> updateCheckpoint(Checkpoint checkpoint) {
+    return call(() -> {
+      Properties props = new Properties();
+      props.setProperty(OFFSET_KEY, checkpoint.getOffset());
+      props.setProperty(SEQUENCE_NUMBER_KEY, Long.toString(checkpoint.getSequenceNumber()));
+      write(checkpointFile(checkpoint.getPartitionId()), props);
+      return null;
+    });
+  }
+
+  @Override
+  public Future<Void> deleteCheckpoint(String partitionId) {
+    return call(() -> {
+      Files.deleteIfExists(checkpointFile(partitionId));
+      return null;
+    });
+  }
+
+  // ILeaseManager
+
+  @Override
+  public int getLeaseRenewIntervalInMilliseconds() {
+    return leaseRenewIntervalMs;
+  }
+
+  @Override
+  public int getLeaseDurationInMilliseconds() {
+    return leaseDurationMs;
+  }
+
+  @Override
+  public Future<Boolean> leaseStoreExists() {
+    return CompletableFuture.completedFuture(Files.isDirectory(storeDirectory));
+  }
+
+  @Override
+  public Future<Boolean> createLeaseStoreIfNotExists() {
+    return call(() -> {
+      Files.createDirectories(storeDirectory);
+      return true;
+    });
+  }
+
+  @Override
+  public Future<Boolean> deleteLeaseStore() {
+    return call(() -> {
+      if (!Files.isDirectory(storeDirectory))
+        return true;
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(storeDirectory)) {
+        for (Path file : files)
+          Files.deleteIfExists(file);
+      }
+      Files.deleteIfExists(storeDirectory);
+      return true;
+    });
+  }
+
+  @Override
+  public Future<Lease> getLease(String partitionId) {
+    return call(() -> readLease(partitionId));
+  }
+
+  @Override
+  public Iterable<Future<Lease>> getAllLeases() throws Exception {
+    // the host creates a lease for every partition before it starts balancing, so the
+    // lease files on disk are the complete set of partitions
+    List<Future<Lease>> leases = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(storeDirectory, LEASE_FILE_PREFIX + "*")) {
+      for (Path file : files) {
+        String partitionId = file.getFileName().toString().substring(LEASE_FILE_PREFIX.length());
+        leases.add(getLease(partitionId));
+      }
+    }
+    return leases;
+  }
+
+  @Override
+  public Future<Lease> createLeaseIfNotExists(String partitionId) {
+    return locked(() -> {
+      FileLease lease = readLease(partitionId);
+      if (lease == null) {
+        lease = new FileLease(partitionId);
+        writeLease(lease);
+      }
+      return lease;
+    });
+  }
+
+  @Override
+  public Future<Void> deleteLease(Lease lease) {
+    return locked(() -> {
+      Files.deleteIfExists(leaseFile(lease.getPartitionId()));
+      return null;
+    });
+  }
+
+  @Override
+  public Future<Boolean> acquireLease(Lease lease) {
+    return locked(() -> {
+      FileLease current = readLease(lease.getPartitionId());
+      if (current == null)
+        current = new FileLease(lease.getPartitionId());
+
+      current.setOwner(hostName);
+      current.setToken(EventProcessorHost.safeCreateUUID());
+      current.incrementEpoch();
+      current.expiresAt = System.currentTimeMillis() + leaseDurationMs;
+      writeLease(current);
+
+      lease.setOwner(current.getOwner());
+      lease.setToken(current.getToken());
+      lease.setEpoch(current.getEpoch());
+      if (lease instanceof FileLease)
+        ((FileLease) lease).expiresAt = current.expiresAt;
+      return true;
+    });
+  }
+
+  @Override
+  public Future<Boolean> renewLease(Lease lease) {
+    return locked(() -> {
+      FileLease current = readLease(lease.getPartitionId());
+      if (current == null || !isSameToken(current, lease))
+        return false;
+
+      current.expiresAt = System.currentTimeMillis() + leaseDurationMs;
+      writeLease(current);
+      if (lease instanceof FileLease)
+        ((FileLease) lease).expiresAt = current.expiresAt;
+      return true;
+    });
+  }
+
+  @Override
+  public Future<Boolean> releaseLease(Lease lease) {
+    return locked(() -> {
+      FileLease current = readLease(lease.getPartitionId());
+      if (current == null || !isSameToken(current, lease))
+        return false;
+
+      current.setOwner("");
+      current.setToken("");
+      current.expiresAt = 0L;
+      writeLease(current);
+      lease.setOwner("");
+      lease.setToken("");
+      return true;
+    });
+  }
+
+  @Override
+  public Future<Boolean> updateLease(Lease lease) {
+    return locked(() -> {
+      FileLease current = readLease(lease.getPartitionId());
+      if (current == null || !isSameToken(current, lease))
+        return false;
+
+      current.setOwner(lease.getOwner());
+      current.setEpoch(lease.getEpoch());
+      current.expiresAt = System.currentTimeMillis() + leaseDurationMs;
+      writeLease(current);
+      return true;
+    });
+  }
+
+  // file helpers
+
+  private static boolean isSameToken(Lease a, Lease b) {
+    String token = a.getToken();
+    return token != null && !token.isEmpty() && token.equals(b.getToken());
+  }
+
+  private Path leaseFile(String partitionId) {
+    return storeDirectory.resolve(LEASE_FILE_PREFIX + partitionId);
+  }
+
+  private Path checkpointFile(String partitionId) {
+    return storeDirectory.resolve(CHECKPOINT_FILE_PREFIX + partitionId);
+  }
+
+  private FileLease readLease(String partitionId) throws IOException {
+    Properties props = read(leaseFile(partitionId));
+    if (props == null)
+      return null;
+
+    FileLease lease = new FileLease(partitionId);
+    lease.setOwner(props.getProperty(OWNER_KEY, ""));
+    lease.setToken(props.getProperty(TOKEN_KEY, ""));
+    lease.setEpoch(Long.parseLong(props.getProperty(EPOCH_KEY, "0")));
+    lease.expiresAt = Long.parseLong(props.getProperty(EXPIRES_KEY, "0"));
+    return lease;
+  }
+
+  private void writeLease(FileLease lease) throws IOException {
+    Properties props = new Properties();
+    props.setProperty(OWNER_KEY, lease.getOwner() != null ? lease.getOwner() : "");
+    props.setProperty(TOKEN_KEY, lease.getToken() != null ? lease.getToken() : "");
+    props.setProperty(EPOCH_KEY, Long.toString(lease.getEpoch()));
+    props.setProperty(EXPIRES_KEY, Long.toString(lease.expiresAt));
+    write(leaseFile(lease.getPartitionId()), props);
+  }
+
+  private static Properties read(Path file) throws IOException {
+    if (!Files.exists(file))
+      return null;
+    Properties props = new Properties();
+    try (InputStream in = Files.newInputStream(file)) {
+      props.load(in);
+    }
+    return props;
+  }
+
+  private static void write(Path file, Properties props) throws IOException {
+    // write to a temporary file and move it into place so readers never see a partial file
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (OutputStream out = Files.newOutputStream(tmp)) {
+      props.store(out, null);
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private <T> CompletableFuture<T> call(Callable<T> callable) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      future.complete(callable.call());
+    } catch (Exception error) {
+      future.completeExceptionally(error);
+    }
+    return future;
+  }
+
+  private <T> CompletableFuture<T> locked(Callable<T> callable) {
+    // serialize lease updates within this JVM and, through the lock file, across hosts sharing the directory
+    return call(() -> {
+      synchronized (this) {
+        Files.createDirectories(storeDirectory);
+        try (FileChannel channel = FileChannel.open(storeDirectory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+          FileLock lock = channel.lock();
+          try {
+            return callable.call();
+          } finally {
+            lock.release();
+          }
+        }
+      }
+    });
+  }
+
+  private static final class FileLease extends Lease {
+    private long expiresAt = 0L;
+
+    FileLease(String partitionId) {
+      super(partitionId);
+      setOwner("");
+      setToken("");
+    }
+
+    @Override
+    public boolean isExpired() {
+      return System.currentTimeMillis() >= expiresAt;
+    }
+  }
+}
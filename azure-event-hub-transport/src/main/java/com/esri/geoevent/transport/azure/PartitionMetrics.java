@@ -0,0 +1,221 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import com.microsoft.azure.eventhubs.EventData;
+import com.microsoft.azure.eventhubs.ReceiverRuntimeInformation;
+import com.microsoft.azure.eventprocessorhost.PartitionContext;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the receive statistics of one partition. Updated by the partition's receive thread
+ * once per onEvents call and read concurrently over JMX.
+ */
+public class PartitionMetrics implements PartitionMetricsMBean {
+  private static final long RATE_WINDOW_MILLIS = 5000L;
+  // upper bounds of the onEvents processing time buckets, the last bucket is open ended
+  private static final long[] HISTOGRAM_BOUNDS_MILLIS = {1L, 5L, 10L, 50L, 100L, 500L, 1000L, 5000L};
+
+  private final String eventHubName;
+  private final String consumerGroupName;
+  private final String partitionId;
+
+  private volatile long eventCount = 0L;
+  private volatile long byteCount = 0L;
+  private volatile double eventsPerSecond = 0.0;
+  private volatile double bytesPerSecond = 0.0;
+  private volatile long windowStartMillis = System.currentTimeMillis();
+  private long windowStartEvents = 0L;
+  private long windowStartBytes = 0L;
+
+  private volatile long lastReceivedSequenceNumber = -1L;
+  private volatile long lastReceivedEnqueuedMillis = 0L;
+  private volatile long lastEnqueuedSequenceNumber = -1L;
+  private volatile long lastEnqueuedMillis = 0L;
+
+  private volatile long onEventsCount = 0L;
+  private volatile long onEventsTotalNanos = 0L;
+  private volatile long onEventsMaxNanos = 0L;
+  private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BOUNDS_MILLIS.length + 1);
+
+  public PartitionMetrics(String eventHubName, String consumerGroupName, String partitionId) {
+    this.eventHubName = eventHubName;
+    this.consumerGroupName = consumerGroupName;
+    this.partitionId = partitionId;
+  }
+
+  /**
+   * Records one onEvents call, called from the partition's receive thread only.
+   */
+  public void record(PartitionContext context, Iterable<EventData> events, long elapsedNanos) {
+    long eventsInCall = 0L;
+    long bytes = 0L;
+    EventData last = null;
+    for (EventData event : events) {
+      eventsInCall++;
+      bytes += AzureEventHubInboundTransport.bodyLength(event);
+      last = event;
+    }
+    eventCount += eventsInCall;
+    byteCount += bytes;
+
+    if (last != null && last.getSystemProperties() != null) {
+      lastReceivedSequenceNumber = last.getSystemProperties().getSequenceNumber();
+      Instant enqueued = last.getSystemProperties().getEnqueuedTime();
+      if (enqueued != null)
+        lastReceivedEnqueuedMillis = enqueued.toEpochMilli();
+    }
+
+    // filled in by the receiver when runtime metrics are enabled on the host options
+    ReceiverRuntimeInformation runtime = context.getRuntimeInformation();
+    if (runtime != null && runtime.getLastEnqueuedTime() != null) {
+      lastEnqueuedSequenceNumber = runtime.getLastSequenceNumber();
+      lastEnqueuedMillis = runtime.getLastEnqueuedTime().toEpochMilli();
+    }
+
+    onEventsCount++;
+    onEventsTotalNanos += elapsedNanos;
+    if (elapsedNanos > onEventsMaxNanos)
+      onEventsMaxNanos = elapsedNanos;
+    histogram.incrementAndGet(bucketFor(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)));
+
+    long now = System.currentTimeMillis();
+    long elapsedMillis = now - windowStartMillis;
+    if (elapsedMillis >= RATE_WINDOW_MILLIS) {
+      eventsPerSecond = (eventCount - windowStartEvents) * 1000.0 / elapsedMillis;
+      bytesPerSecond = (byteCount - windowStartBytes) * 1000.0 / elapsedMillis;
+      windowStartMillis = now;
+      windowStartEvents = eventCount;
+      windowStartBytes = byteCount;
+    }
+  }
+
+  @Override
+  public String getEventHubName() {
+    return eventHubName;
+  }
+
+  @Override
+  public String getConsumerGroupName() {
+    return consumerGroupName;
+  }
+
+  @Override
+  public String getPartitionId() {
+    return partitionId;
+  }
+
+  @Override
+  public long getEventCount() {
+    return eventCount;
+  }
+
+  @Override
+  public long getByteCount() {
+    return byteCount;
+  }
+
+  @Override
+  public double getEventsPerSecond() {
+    return isIdle() ? 0.0 : eventsPerSecond;
+  }
+
+  @Override
+  public double getBytesPerSecond() {
+    return isIdle() ? 0.0 : bytesPerSecond;
+  }
+
+  @Override
+  public long getLastReceivedSequenceNumber() {
+    return lastReceivedSequenceNumber;
+  }
+
+  @Override
+  public long getLastEnqueuedSequenceNumber() {
+    return lastEnqueuedSequenceNumber;
+  }
+
+  @Override
+  public long getSequenceNumberLag() {
+    if (lastEnqueuedSequenceNumber < 0L || lastReceivedSequenceNumber < 0L)
+      return 0L;
+    return Math.max(0L, lastEnqueuedSequenceNumber - lastReceivedSequenceNumber);
+  }
+
+  @Override
+  public long getLastEnqueuedAgeMillis() {
+    return (lastEnqueuedMillis > 0L) ? System.currentTimeMillis() - lastEnqueuedMillis : -1L;
+  }
+
+  @Override
+  public long getReceiveLagMillis() {
+    return (lastReceivedEnqueuedMillis > 0L) ? Math.max(0L, System.currentTimeMillis() - lastReceivedEnqueuedMillis) : -1L;
+  }
+
+  @Override
+  public long getOnEventsCount() {
+    return onEventsCount;
+  }
+
+  @Override
+  public double getOnEventsAverageMillis() {
+    long count = onEventsCount;
+    return (count > 0L) ? onEventsTotalNanos / (count * 1000000.0) : 0.0;
+  }
+
+  @Override
+  public long getOnEventsMaxMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(onEventsMaxNanos);
+  }
+
+  @Override
+  public long[] getOnEventsHistogramBoundsMillis() {
+    return HISTOGRAM_BOUNDS_MILLIS.clone();
+  }
+
+  @Override
+  public long[] getOnEventsHistogramCounts() {
+    long[] counts = new long[histogram.length()];
+    for (int i = 0; i < counts.length; i++)
+      counts[i] = histogram.get(i);
+    return counts;
+  }
+
+  private boolean isIdle() {
+    // no onEvents call has closed a rate window for a while
+    return System.currentTimeMillis() - windowStartMillis > 2 * RATE_WINDOW_MILLIS;
+  }
+
+  private static int bucketFor(long millis) {
+    for (int i = 0; i < HISTOGRAM_BOUNDS_MILLIS.length; i++) {
+      if (millis < HISTOGRAM_BOUNDS_MILLIS[i])
+        return i;
+    }
+    return HISTOGRAM_BOUNDS_MILLIS.length;
+  }
+}
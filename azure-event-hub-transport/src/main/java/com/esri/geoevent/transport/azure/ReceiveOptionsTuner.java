@@ -0,0 +1,100 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.microsoft.azure.eventprocessorhost.EventProcessorOptions;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Periodically adjusts the prefetch count and maximum batch size of the host's
+ * EventProcessorOptions within configured bounds: both grow while partitions lag behind and
+ * shrink while the heap is under pressure. EPH reads these options whenever it creates a partition
+ * receiver, so a change applies to receivers created from then on, e.g. after a rebalance.
+ */
+public class ReceiveOptionsTuner {
+  // logger
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(ReceiveOptionsTuner.class);
+
+  private static final long TUNING_INTERVAL_SECONDS = 10L;
+  private static final long LAGGING_THRESHOLD_MILLIS = 5000L;
+  private static final double HEAP_PRESSURE_RATIO = 0.8;
+
+  private final EventProcessorOptions options;
+  private final int minPrefetchCount;
+  private final int maxPrefetchCount;
+  private final int minBatchSize;
+  private final int maxBatchSize;
+  private final LongSupplier lagMillis;
+  private final ScheduledExecutorService executor;
+
+  public ReceiveOptionsTuner(EventProcessorOptions options, int minPrefetchCount, int maxPrefetchCount, int minBatchSize, int maxBatchSize, LongSupplier lagMillis) {
+    this.options = options;
+    this.minPrefetchCount = minPrefetchCount;
+    this.maxPrefetchCount = Math.max(minPrefetchCount, maxPrefetchCount);
+    this.minBatchSize = minBatchSize;
+    this.maxBatchSize = Math.max(minBatchSize, maxBatchSize);
+    this.lagMillis = lagMillis;
+    this.executor = Executors.newSingleThreadScheduledExecutor();
+    this.executor.scheduleWithFixedDelay(this::tune, TUNING_INTERVAL_SECONDS, TUNING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private void tune() {
+    int prefetchCount = options.getPrefetchCount();
+    int batchSize = options.getMaxBatchSize();
+    int newPrefetchCount = prefetchCount;
+    int newBatchSize = batchSize;
+
+    if (heapUsage() > HEAP_PRESSURE_RATIO) {
+      // fewer events buffered in the receivers and in flight per onEvents call
+      newPrefetchCount = Math.max(minPrefetchCount, prefetchCount / 2);
+      newBatchSize = Math.max(minBatchSize, batchSize / 2);
+    } else if (lagMillis.getAsLong() > LAGGING_THRESHOLD_MILLIS) {
+      newPrefetchCount = Math.min(maxPrefetchCount, prefetchCount + Math.max(1, prefetchCount / 2));
+      newBatchSize = Math.min(maxBatchSize, batchSize + Math.max(1, batchSize / 2));
+    }
+
+    if (newPrefetchCount != prefetchCount || newBatchSize != batchSize) {
+      options.setPrefetchCount(newPrefetchCount);
+      options.setMaxBatchSize(newBatchSize);
+      LOGGER.info("RECEIVE_OPTIONS_TUNED", newPrefetchCount, newBatchSize);
+    }
+  }
+
+  private static double heapUsage() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = runtime.totalMemory() - runtime.freeMemory();
+    return (double) used / runtime.maxMemory();
+  }
+}
@@ -0,0 +1,359 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects the send statistics of an outbound transport: rates, in-flight sends, end-to-end send
+ * latencies and the outcome of every send. Updated concurrently by the sending threads and the
+ * completion callbacks, read over JMX and by the status details.
+ */
+public class OutboundMetrics implements OutboundMetricsMBean {
+  // logger
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(OutboundMetrics.class);
+
+  private static final String METRICS_DOMAIN = "com.esri.geoevent.transport.azure";
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
+  private static final long RATE_WINDOW_MILLIS = 5000L;
+  // upper bounds of the latency buckets, the last bucket is open ended
+  private static final long[] HISTOGRAM_BOUNDS_MILLIS = {1L, 2L, 5L, 10L, 20L, 50L, 100L, 200L, 500L, 1000L, 2000L, 5000L, 10000L, 30000L, 60000L};
+  public static final String STATUS_OK = "OK";
+
+  private final String transportType;
+  private final String target;
+  private ObjectName registeredName = null;
+
+  private final AtomicLong messageCount = new AtomicLong();
+  private final AtomicLong byteCount = new AtomicLong();
+  private final AtomicLong sendCount = new AtomicLong();
+  private final AtomicLong inFlightCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+  private final AtomicLong retryCount = new AtomicLong();
+  private final AtomicLong dropCount = new AtomicLong();
+  private final AtomicLong throttleCount = new AtomicLong();
+  private final ConcurrentHashMap<String, AtomicLong> statusCodeCounts = new ConcurrentHashMap<>();
+  private volatile DoubleSupplier permittedRate = () -> 0.0;
+  private volatile LongSupplier journalPendingCount = () -> 0L;
+
+  private volatile double messagesPerSecond = 0.0;
+  private volatile double bytesPerSecond = 0.0;
+  private volatile long windowStartMillis = System.currentTimeMillis();
+  private long windowStartMessages = 0L;
+  private long windowStartBytes = 0L;
+
+  private final AtomicLong latencyTotalNanos = new AtomicLong();
+  private volatile long latencyMaxNanos = 0L;
+  private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BOUNDS_MILLIS.length + 1);
+
+  public OutboundMetrics(String transportType, String target) {
+    this.transportType = transportType;
+    this.target = (target != null) ? target : "";
+  }
+
+  /**
+   * Records the start of a send, returning the start time to hand to {@link #completed}.
+   */
+  public long started() {
+    inFlightCount.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  /**
+   * Records the outcome of a send of one or more messages, from its start to its final
+   * acknowledgement including retries.
+   */
+  public void completed(long startNanos, int messages, long bytes, String statusCode, boolean success) {
+    inFlightCount.decrementAndGet();
+    long elapsedNanos = System.nanoTime() - startNanos;
+    latencyTotalNanos.addAndGet(elapsedNanos);
+    if (elapsedNanos > latencyMaxNanos)
+      latencyMaxNanos = elapsedNanos;
+    histogram.incrementAndGet(bucketFor(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)));
+    sendCount.incrementAndGet();
+    statusCodeCounts.computeIfAbsent((statusCode != null) ? statusCode : STATUS_OK, code -> new AtomicLong()).addAndGet(messages);
+
+    if (success) {
+      messageCount.addAndGet(messages);
+      byteCount.addAndGet(bytes);
+    } else {
+      failureCount.addAndGet(messages);
+    }
+
+    long now = System.currentTimeMillis();
+    if (now - windowStartMillis >= RATE_WINDOW_MILLIS)
+      closeWindow(now);
+  }
+
+  public void retried() {
+    retryCount.incrementAndGet();
+  }
+
+  public void dropped(int messages) {
+    dropCount.addAndGet(messages);
+  }
+
+  public void throttled() {
+    throttleCount.incrementAndGet();
+  }
+
+  public void setPermittedRate(DoubleSupplier permittedRate) {
+    this.permittedRate = permittedRate;
+  }
+
+  public void setJournalPendingCount(LongSupplier journalPendingCount) {
+    this.journalPendingCount = journalPendingCount;
+  }
+
+  /**
+   * Publishes the metrics on the platform MBean server, a failure is logged and otherwise ignored.
+   */
+  public synchronized void register() {
+    if (registeredName != null)
+      return;
+    try {
+      // the instance number keeps several connectors writing to the same target apart
+      ObjectName name = new ObjectName(METRICS_DOMAIN + ":type=" + transportType + ",target=" + ObjectName.quote(target) + ",instance=" + INSTANCES.incrementAndGet());
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(this, name);
+      registeredName = name;
+    } catch (Exception e) {
+      LOGGER.warn("SEND_METRICS_REGISTRATION_ERROR", target, e.toString());
+    }
+  }
+
+  public synchronized void unregister() {
+    if (registeredName == null)
+      return;
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+    } catch (Exception ignored) {
+    } finally {
+      registeredName = null;
+    }
+  }
+
+  @Override
+  public String getTransportType() {
+    return transportType;
+  }
+
+  @Override
+  public String getTarget() {
+    return target;
+  }
+
+  @Override
+  public long getMessageCount() {
+    return messageCount.get();
+  }
+
+  @Override
+  public long getByteCount() {
+    return byteCount.get();
+  }
+
+  @Override
+  public double getMessagesPerSecond() {
+    return isIdle() ? 0.0 : messagesPerSecond;
+  }
+
+  @Override
+  public double getBytesPerSecond() {
+    return isIdle() ? 0.0 : bytesPerSecond;
+  }
+
+  @Override
+  public long getSendCount() {
+    return sendCount.get();
+  }
+
+  @Override
+  public double getAverageMessagesPerSend() {
+    long sends = sendCount.get();
+    return (sends > 0L) ? (messageCount.get() + failureCount.get()) / (double) sends : 0.0;
+  }
+
+  @Override
+  public long getInFlightCount() {
+    return inFlightCount.get();
+  }
+
+  @Override
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  @Override
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  @Override
+  public long getDropCount() {
+    return dropCount.get();
+  }
+
+  @Override
+  public long getThrottleCount() {
+    return throttleCount.get();
+  }
+
+  @Override
+  public double getPermittedRate() {
+    return permittedRate.getAsDouble();
+  }
+
+  @Override
+  public long getJournalPendingCount() {
+    return journalPendingCount.getAsLong();
+  }
+
+  @Override
+  public double getLatencyAverageMillis() {
+    long sends = sendCount.get();
+    return (sends > 0L) ? latencyTotalNanos.get() / (sends * 1000000.0) : 0.0;
+  }
+
+  @Override
+  public long getLatencyMaxMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(latencyMaxNanos);
+  }
+
+  @Override
+  public long getLatencyP50Millis() {
+    return percentile(0.5);
+  }
+
+  @Override
+  public long getLatencyP99Millis() {
+    return percentile(0.99);
+  }
+
+  @Override
+  public long getLatencyP999Millis() {
+    return percentile(0.999);
+  }
+
+  @Override
+  public long[] getLatencyHistogramBoundsMillis() {
+    return HISTOGRAM_BOUNDS_MILLIS.clone();
+  }
+
+  @Override
+  public long[] getLatencyHistogramCounts() {
+    long[] counts = new long[histogram.length()];
+    for (int i = 0; i < counts.length; i++)
+      counts[i] = histogram.get(i);
+    return counts;
+  }
+
+  @Override
+  public String[] getStatusCodeCounts() {
+    Map<String, AtomicLong> sorted = new TreeMap<>(statusCodeCounts);
+    String[] counts = new String[sorted.size()];
+    int i = 0;
+    for (Map.Entry<String, AtomicLong> entry : sorted.entrySet())
+      counts[i++] = entry.getKey() + "=" + entry.getValue().get();
+    return counts;
+  }
+
+  /**
+   * The upper bound of the bucket the given share of all sends completed within, or the maximum
+   * latency for sends beyond the last bucket.
+   */
+  private long percentile(double quantile) {
+    long[] counts = getLatencyHistogramCounts();
+    long total = 0L;
+    for (long count : counts)
+      total += count;
+    if (total == 0L)
+      return 0L;
+
+    long rank = (long) Math.ceil(quantile * total);
+    long cumulative = 0L;
+    for (int i = 0; i < HISTOGRAM_BOUNDS_MILLIS.length; i++) {
+      cumulative += counts[i];
+      if (cumulative >= rank)
+        return HISTOGRAM_BOUNDS_MILLIS[i];
+    }
+    return getLatencyMaxMillis();
+  }
+
+  private synchronized void closeWindow(long now) {
+    long elapsedMillis = now - windowStartMillis;
+    if (elapsedMillis < RATE_WINDOW_MILLIS)
+      return;
+    long messages = messageCount.get();
+    long bytes = byteCount.get();
+    messagesPerSecond = (messages - windowStartMessages) * 1000.0 / elapsedMillis;
+    bytesPerSecond = (bytes - windowStartBytes) * 1000.0 / elapsedMillis;
+    windowStartMillis = now;
+    windowStartMessages = messages;
+    windowStartBytes = bytes;
+  }
+
+  private boolean isIdle() {
+    // no send has closed a rate window for a while
+    return System.currentTimeMillis() - windowStartMillis > 2 * RATE_WINDOW_MILLIS;
+  }
+
+  private static int bucketFor(long millis) {
+    for (int i = 0; i < HISTOGRAM_BOUNDS_MILLIS.length; i++) {
+      if (millis < HISTOGRAM_BOUNDS_MILLIS[i])
+        return i;
+    }
+    return HISTOGRAM_BOUNDS_MILLIS.length;
+  }
+
+  /**
+   * Looks up a value of a <code>Key=Value;...</code> connection string, used to name the target.
+   */
+  public static String connectionStringValue(String connectionString, String key) {
+    if (connectionString != null) {
+      for (String part : connectionString.split(";")) {
+        int separator = part.indexOf('=');
+        if (separator > 0 && part.substring(0, separator).trim().equalsIgnoreCase(key))
+          return part.substring(separator + 1).trim();
+      }
+    }
+    return "";
+  }
+}
@@ -0,0 +1,77 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+/**
+ * Send statistics of an outbound transport, as exposed over JMX.
+ */
+public interface OutboundMetricsMBean {
+  String getTransportType();
+
+  String getTarget();
+
+  long getMessageCount();
+
+  long getByteCount();
+
+  double getMessagesPerSecond();
+
+  double getBytesPerSecond();
+
+  long getSendCount();
+
+  double getAverageMessagesPerSend();
+
+  long getInFlightCount();
+
+  long getFailureCount();
+
+  long getRetryCount();
+
+  long getDropCount();
+
+  long getThrottleCount();
+
+  double getPermittedRate();
+
+  long getJournalPendingCount();
+
+  double getLatencyAverageMillis();
+
+  long getLatencyMaxMillis();
+
+  long getLatencyP50Millis();
+
+  long getLatencyP99Millis();
+
+  long getLatencyP999Millis();
+
+  long[] getLatencyHistogramBoundsMillis();
+
+  long[] getLatencyHistogramCounts();
+
+  String[] getStatusCodeCounts();
+}
@@ -0,0 +1,49 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns the buffer an adapter hands to an outbound transport into a message body.
+ */
+public final class OutboundPayload {
+  private OutboundPayload() {
+  }
+
+  /**
+   * Copies exactly the readable bytes of the buffer, between its position and limit, in a single
+   * copy. Works for heap, direct and sliced buffers alike and leaves the buffer's position as it is.
+   */
+  public static byte[] toBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    if (buffer.hasArray()) {
+      System.arraycopy(buffer.array(), buffer.arrayOffset() + buffer.position(), bytes, 0, bytes.length);
+    } else {
+      buffer.duplicate().get(bytes);
+    }
+    return bytes;
+  }
+}
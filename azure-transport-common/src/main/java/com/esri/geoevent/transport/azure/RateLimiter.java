@@ -0,0 +1,64 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting callers to a number of permits per second, allowing up to one second of
+ * unused permits to be spent as a burst.
+ */
+public class RateLimiter {
+  private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private volatile long nanosPerPermit;
+  private long nextFreeNanos;
+
+  public RateLimiter(int permitsPerSecond) {
+    setPermitsPerSecond(permitsPerSecond);
+    this.nextFreeNanos = System.nanoTime();
+  }
+
+  /**
+   * Changes the rate, permits already handed out are not affected.
+   */
+  public void setPermitsPerSecond(double permitsPerSecond) {
+    nanosPerPermit = (long) (ONE_SECOND_NANOS / Math.max(1.0, permitsPerSecond));
+  }
+
+  public void acquire(int permits) throws InterruptedException {
+    long waitNanos;
+    synchronized (this) {
+      long now = System.nanoTime();
+      // never bank more than a second worth of idle time
+      if (nextFreeNanos < now - ONE_SECOND_NANOS)
+        nextFreeNanos = now - ONE_SECOND_NANOS;
+      waitNanos = Math.max(0L, nextFreeNanos - now);
+      nextFreeNanos += permits * nanosPerPermit;
+    }
+    if (waitNanos > 0L)
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+  }
+}
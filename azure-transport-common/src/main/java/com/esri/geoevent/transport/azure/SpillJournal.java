@@ -0,0 +1,502 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+
+package com.esri.geoevent.transport.azure;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local store-and-forward journal for outbound events that could not be sent. Records are
+ * appended to memory-mapped segment files and replayed in order, at a bounded rate, by a
+ * background thread once the sender succeeds again. The segments are sized so that together they
+ * stay within the byte cap; while the journal is full new records are rejected and counted as
+ * dropped.
+ * <p>
+ * The journal is failing from an append until a send succeeds again, replayed or reported with
+ * {@link #sendSucceeded()}. Only while it is failing are new events appended instead of sent.
+ */
+public class SpillJournal {
+  // logger
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(SpillJournal.class);
+
+  public interface Sender {
+    void send(String key, byte[] payload) throws Exception;
+  }
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".journal";
+  private static final String CURSOR_FILE_NAME = "cursor";
+  private static final String LOCK_FILE_NAME = "lock";
+  private static final int MIN_SEGMENT_BYTES = 1024 * 1024;
+  private static final int MAX_SEGMENT_BYTES = 64 * 1024 * 1024;
+  // record layout: int length of the rest, short key length (-1 for no key), key, payload
+  private static final int LENGTH_BYTES = 4;
+  private static final int KEY_LENGTH_BYTES = 2;
+  private static final long MIN_RETRY_MILLIS = 500L;
+  private static final long MAX_RETRY_MILLIS = 30000L;
+  private static final long FORCE_INTERVAL_MILLIS = 1000L;
+
+  private final File directory;
+  private final int segmentBytes;
+  private final int maxSegments;
+  private final long nanosPerRecord;
+  private final Sender sender;
+
+  // segments still holding unsent records, the first is read from and the last is written to
+  private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+  private MappedByteBuffer cursor;
+  private FileChannel lockChannel;
+  private FileLock lock;
+  private int readPosition;
+  private int writePosition;
+  private long pendingCount;
+  private boolean full = false;
+  private volatile boolean failing = false;
+  private volatile boolean running = false;
+  private Thread replayThread;
+
+  // statistics
+  private volatile long appendedCount = 0L;
+  private volatile long replayedCount = 0L;
+  private volatile long droppedCount = 0L;
+
+  public SpillJournal(File directory, long maxBytes, int replayRatePerSecond, Sender sender) {
+    this.directory = directory;
+    // a cap up to the minimum segment size is a single segment
+    long preferredSegmentBytes = Math.min(MAX_SEGMENT_BYTES, Math.max(MIN_SEGMENT_BYTES, maxBytes / 4));
+    this.segmentBytes = (int) Math.max(LENGTH_BYTES + KEY_LENGTH_BYTES, Math.min(maxBytes, preferredSegmentBytes));
+    this.maxSegments = (int) Math.max(1L, maxBytes / segmentBytes);
+    this.nanosPerRecord = TimeUnit.SECONDS.toNanos(1) / Math.max(1, replayRatePerSecond);
+    this.sender = sender;
+  }
+
+  /**
+   * The name of the journal directory of an output, from its id, or from its connection string
+   * when it has no id.
+   */
+  public static String directoryName(String id, String connectionString) {
+    if (id == null || id.isEmpty())
+      return Integer.toHexString(connectionString.hashCode());
+    return id.replaceAll("[^A-Za-z0-9._-]", "_");
+  }
+
+  /**
+   * Recovers the records a previous run left behind and starts replaying them. Fails when
+   * another journal, in this or another process, has the directory open.
+   */
+  public synchronized void open() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException(LOGGER.translate("JOURNAL_DIRECTORY_ERROR", directory.getAbsolutePath()));
+
+    lockChannel = FileChannel.open(new File(directory, LOCK_FILE_NAME).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      lock = lockChannel.tryLock();
+    } catch (OverlappingFileLockException held) {
+      lock = null;
+    }
+    if (lock == null) {
+      unlock();
+      throw new IOException(LOGGER.translate("JOURNAL_LOCKED"));
+    }
+    try {
+      recover();
+    } catch (IOException | RuntimeException error) {
+      segments.clear();
+      cursor = null;
+      unlock();
+      throw error;
+    }
+
+    running = true;
+    replayThread = new Thread(this::replay, "azure-spill-journal-" + directory.getName());
+    replayThread.setDaemon(true);
+    replayThread.start();
+  }
+
+  private void recover() throws IOException {
+    cursor = map(new File(directory, CURSOR_FILE_NAME), 2 * Long.BYTES);
+    long cursorSequence = cursor.getLong(0);
+    int cursorPosition = (int) cursor.getLong(Long.BYTES);
+
+    List<Long> sequences = new ArrayList<>();
+    File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    if (files != null) {
+      for (File file : files) {
+        try {
+          sequences.add(Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length())));
+        } catch (NumberFormatException ignored) {
+        }
+      }
+    }
+    Collections.sort(sequences);
+    for (long sequence : sequences) {
+      File file = segmentFile(sequence);
+      // segments before the cursor were fully replayed but could not be deleted while mapped
+      if (sequence < cursorSequence)
+        file.delete();
+      else
+        segments.add(new Segment(sequence, file, map(file, 0)));
+    }
+    if (segments.isEmpty()) {
+      long sequence = Math.max(0L, cursorSequence);
+      segments.add(new Segment(sequence, segmentFile(sequence), map(segmentFile(sequence), segmentBytes)));
+    }
+
+    // count what is left to replay and find the end of the last segment
+    readPosition = (segments.getFirst().sequence == cursorSequence) ? cursorPosition : 0;
+    pendingCount = 0L;
+    int position = readPosition;
+    for (Segment segment : segments) {
+      int length;
+      while ((length = recordLength(segment.buffer, position)) > 0) {
+        position += LENGTH_BYTES + length;
+        pendingCount++;
+      }
+      writePosition = position;
+      position = 0;
+    }
+    saveCursor();
+  }
+
+  /**
+   * Appends a record, returning false when the journal is full or closed.
+   */
+  public synchronized boolean append(String key, byte[] payload) {
+    failing = true;
+    byte[] keyBytes = (key != null) ? key.getBytes(StandardCharsets.UTF_8) : null;
+    int length = KEY_LENGTH_BYTES + ((keyBytes != null) ? keyBytes.length : 0) + payload.length;
+    if (!running || LENGTH_BYTES + length > segmentBytes || (keyBytes != null && keyBytes.length > Short.MAX_VALUE)) {
+      droppedCount++;
+      return false;
+    }
+
+    Segment segment = segments.getLast();
+    if (writePosition + LENGTH_BYTES + length > segment.buffer.capacity()) {
+      // once everything was replayed the segments make room for a new one
+      boolean replayed = segments.size() >= maxSegments && pendingCount == 0L;
+      if (segments.size() >= maxSegments && !replayed) {
+        droppedCount++;
+        if (!full) {
+          full = true;
+          LOGGER.warn("JOURNAL_FULL", directory.getAbsolutePath());
+        }
+        return false;
+      }
+      try {
+        long sequence = segment.sequence + 1;
+        segment = new Segment(sequence, segmentFile(sequence), map(segmentFile(sequence), segmentBytes));
+      } catch (IOException error) {
+        droppedCount++;
+        LOGGER.warn("JOURNAL_WRITE_ERROR", directory.getAbsolutePath(), error.toString());
+        return false;
+      }
+      if (replayed)
+        dropReplayedSegments();
+      segments.add(segment);
+      writePosition = 0;
+      if (segments.size() == 1)
+        saveCursor();
+    }
+
+    // the length goes in last, a record torn by a crash reads as the end of the segment
+    ByteBuffer record = segment.buffer.duplicate();
+    record.position(writePosition + LENGTH_BYTES);
+    if (keyBytes != null) {
+      record.putShort((short) keyBytes.length);
+      record.put(keyBytes);
+    } else {
+      record.putShort((short) -1);
+    }
+    record.put(payload);
+    segment.buffer.putInt(writePosition, length);
+    writePosition += LENGTH_BYTES + length;
+
+    pendingCount++;
+    appendedCount++;
+    notifyAll();
+    return true;
+  }
+
+  /**
+   * Whether sends are failing, i.e. records were appended and nothing was sent since.
+   */
+  public boolean isFailing() {
+    return failing;
+  }
+
+  /**
+   * To be called when a new event was sent, new events no longer need to be appended.
+   */
+  public void sendSucceeded() {
+    failing = false;
+  }
+
+  public synchronized boolean isEmpty() {
+    return pendingCount == 0L;
+  }
+
+  public synchronized long getPendingCount() {
+    return pendingCount;
+  }
+
+  public long getAppendedCount() {
+    return appendedCount;
+  }
+
+  public long getReplayedCount() {
+    return replayedCount;
+  }
+
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Stops replaying and flushes the mapped segments, unsent records are kept for the next run.
+   */
+  public void close() {
+    Thread thread;
+    synchronized (this) {
+      if (!running)
+        return;
+      running = false;
+      thread = replayThread;
+      replayThread = null;
+      notifyAll();
+    }
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      force();
+      segments.clear();
+      cursor = null;
+      unlock();
+    }
+  }
+
+  private void unlock() {
+    try {
+      if (lock != null)
+        lock.release();
+    } catch (IOException ignored) {
+    }
+    try {
+      if (lockChannel != null)
+        lockChannel.close();
+    } catch (IOException ignored) {
+    }
+    lock = null;
+    lockChannel = null;
+  }
+
+  private void replay() {
+    long retryMillis = MIN_RETRY_MILLIS;
+    long lastForce = System.currentTimeMillis();
+    while (running) {
+      Record record;
+      try {
+        synchronized (this) {
+          if (!running)
+            break;
+          if (System.currentTimeMillis() - lastForce >= FORCE_INTERVAL_MILLIS) {
+            force();
+            lastForce = System.currentTimeMillis();
+          }
+          if (pendingCount == 0L) {
+            wait(FORCE_INTERVAL_MILLIS);
+            continue;
+          }
+          record = peek();
+        }
+        if (record == null)
+          continue;
+
+        long start = System.nanoTime();
+        try {
+          sender.send(record.key, record.payload);
+        } catch (InterruptedException e) {
+          throw e;
+        } catch (Exception error) {
+          if (retryMillis == MIN_RETRY_MILLIS)
+            LOGGER.warn("JOURNAL_REPLAY_ERROR", getPendingCount(), error.toString());
+          Thread.sleep(retryMillis);
+          retryMillis = Math.min(MAX_RETRY_MILLIS, retryMillis * 2);
+          continue;
+        }
+        retryMillis = MIN_RETRY_MILLIS;
+        failing = false;
+        synchronized (this) {
+          commit(record);
+        }
+        replayedCount++;
+
+        long waitNanos = nanosPerRecord - (System.nanoTime() - start);
+        if (waitNanos > 0L)
+          TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        break;
+      }
+    }
+  }
+
+  private Record peek() {
+    while (true) {
+      Segment segment = segments.getFirst();
+      int length = recordLength(segment.buffer, readPosition);
+      if (length > 0) {
+        ByteBuffer record = segment.buffer.duplicate();
+        record.position(readPosition + LENGTH_BYTES);
+        short keyLength = record.getShort();
+        String key = null;
+        if (keyLength >= 0) {
+          byte[] keyBytes = new byte[keyLength];
+          record.get(keyBytes);
+          key = new String(keyBytes, StandardCharsets.UTF_8);
+        }
+        byte[] payload = new byte[length - KEY_LENGTH_BYTES - Math.max(0, keyLength)];
+        record.get(payload);
+        return new Record(key, payload, readPosition + LENGTH_BYTES + length);
+      }
+      if (segments.size() == 1) {
+        pendingCount = 0L;
+        return null;
+      }
+
+      // the segment is used up, move on and free its disk space
+      segments.removeFirst();
+      readPosition = 0;
+      saveCursor();
+      if (!segment.file.delete())
+        segment.file.deleteOnExit();
+      full = false;
+    }
+  }
+
+  /**
+   * Gives up the segments once everything in them was replayed, so that a journal at its limit,
+   * e.g. a single segment, can start over.
+   */
+  private void dropReplayedSegments() {
+    while (!segments.isEmpty()) {
+      Segment segment = segments.removeFirst();
+      if (!segment.file.delete())
+        segment.file.deleteOnExit();
+    }
+    readPosition = 0;
+    full = false;
+  }
+
+  private void commit(Record record) {
+    if (cursor == null)
+      return;
+    readPosition = record.nextPosition;
+    saveCursor();
+    pendingCount--;
+  }
+
+  private void saveCursor() {
+    cursor.putLong(0, segments.getFirst().sequence);
+    cursor.putLong(Long.BYTES, readPosition);
+  }
+
+  private void force() {
+    if (cursor == null)
+      return;
+    if (!segments.isEmpty())
+      segments.getLast().buffer.force();
+    cursor.force();
+  }
+
+  private File segmentFile(long sequence) {
+    return new File(directory, String.format("%s%019d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+  }
+
+  private static int recordLength(MappedByteBuffer buffer, int position) {
+    if (position + LENGTH_BYTES > buffer.capacity())
+      return 0;
+    int length = buffer.getInt(position);
+    // anything that does not fit is a torn or corrupt tail
+    return (length >= KEY_LENGTH_BYTES && position + LENGTH_BYTES + length <= buffer.capacity()) ? length : 0;
+  }
+
+  /**
+   * Maps a file, sizing it first when <code>size</code> is positive.
+   */
+  private static MappedByteBuffer map(File file, long size) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (size > 0L && raf.length() != size)
+        raf.setLength(size);
+      // the mapping stays valid after the file is closed
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, raf.length());
+    }
+  }
+
+  private static final class Segment {
+    private final long sequence;
+    private final File file;
+    private final MappedByteBuffer buffer;
+
+    Segment(long sequence, File file, MappedByteBuffer buffer) {
+      this.sequence = sequence;
+      this.file = file;
+      this.buffer = buffer;
+    }
+  }
+
+  private static final class Record {
+    private final String key;
+    private final byte[] payload;
+    private final int nextPosition;
+
+    Record(String key, byte[] payload, int nextPosition) {
+      this.key = key;
+      this.payload = payload;
+      this.nextPosition = nextPosition;
+    }
+  }
+}
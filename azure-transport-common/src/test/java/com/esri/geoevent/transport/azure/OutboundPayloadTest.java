@@ -0,0 +1,103 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class OutboundPayloadTest {
+  private static final byte[] DATA = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+  @Test
+  public void heapBufferCopiesOnlyTheReadableBytes() {
+    ByteBuffer buffer = ByteBuffer.wrap(DATA);
+    buffer.position(2);
+    buffer.limit(6);
+
+    assertArrayEquals(new byte[] {2, 3, 4, 5}, OutboundPayload.toBytes(buffer));
+    assertEquals(2, buffer.position());
+    assertEquals(6, buffer.limit());
+  }
+
+  @Test
+  public void slicedHeapBufferHonoursTheArrayOffset() {
+    ByteBuffer whole = ByteBuffer.wrap(DATA);
+    whole.position(3);
+    ByteBuffer slice = whole.slice();
+    slice.position(1);
+    slice.limit(4);
+
+    assertEquals(3, slice.arrayOffset());
+    assertArrayEquals(new byte[] {4, 5, 6}, OutboundPayload.toBytes(slice));
+    assertEquals(1, slice.position());
+  }
+
+  @Test
+  public void directBufferCopiesOnlyTheReadableBytes() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(DATA.length);
+    buffer.put(DATA);
+    buffer.flip();
+    buffer.position(5);
+
+    assertFalse(buffer.hasArray());
+    assertArrayEquals(new byte[] {5, 6, 7, 8, 9}, OutboundPayload.toBytes(buffer));
+    assertEquals(5, buffer.position());
+  }
+
+  @Test
+  public void slicedDirectBufferCopiesOnlyTheReadableBytes() {
+    ByteBuffer whole = ByteBuffer.allocateDirect(DATA.length);
+    whole.put(DATA);
+    whole.position(4);
+    ByteBuffer slice = whole.slice();
+    slice.position(2);
+    slice.limit(5);
+
+    assertArrayEquals(new byte[] {6, 7, 8}, OutboundPayload.toBytes(slice));
+    assertEquals(2, slice.position());
+  }
+
+  @Test
+  public void readOnlyHeapBufferIsCopiedWithoutItsArray() {
+    ByteBuffer buffer = ByteBuffer.wrap(DATA, 1, 3).asReadOnlyBuffer();
+
+    assertFalse(buffer.hasArray());
+    assertArrayEquals(new byte[] {1, 2, 3}, OutboundPayload.toBytes(buffer));
+    assertEquals(1, buffer.position());
+  }
+
+  @Test
+  public void emptyBufferGivesAnEmptyBody() {
+    ByteBuffer buffer = ByteBuffer.wrap(DATA);
+    buffer.position(DATA.length);
+
+    assertEquals(0, OutboundPayload.toBytes(buffer).length);
+  }
+}
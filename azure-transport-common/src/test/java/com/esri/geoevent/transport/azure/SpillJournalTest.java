@@ -0,0 +1,221 @@
+/*
+  Copyright 1995-2017 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.azure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillJournalTest {
+  private static final long MEGABYTE = 1024L * 1024L;
+  private static final long TIMEOUT_MILLIS = 10000L;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final GatedSender sender = new GatedSender();
+  private SpillJournal journal;
+
+  @After
+  public void closeJournal() {
+    if (journal != null)
+      journal.close();
+  }
+
+  @Test
+  public void recordsAreReplayedInOrderWithTheirKeys() throws Exception {
+    journal = open(folder.getRoot(), 4 * MEGABYTE, sender);
+    assertTrue(journal.append("a", payload(1)));
+    assertTrue(journal.append(null, payload(2)));
+    assertTrue(journal.append("c", payload(3)));
+    assertEquals(3L, journal.getPendingCount());
+
+    sender.permits.release(3);
+    assertEquals("a:1", sender.next());
+    assertEquals("null:2", sender.next());
+    assertEquals("c:3", sender.next());
+    await(journal::isEmpty);
+    assertEquals(3L, journal.getReplayedCount());
+  }
+
+  @Test
+  public void appendsRollOverToNewSegmentsUpToTheByteCap() throws Exception {
+    File directory = folder.getRoot();
+    journal = open(directory, 4 * MEGABYTE, sender);
+    byte[] record = new byte[100 * 1024];
+
+    int appended = 0;
+    while (journal.append("key", record))
+      appended++;
+
+    assertEquals(4, segmentFiles(directory).length);
+    for (File segment : segmentFiles(directory))
+      assertEquals(MEGABYTE, segment.length());
+    assertEquals(appended, journal.getPendingCount());
+    assertTrue(appended > 30);
+    assertEquals(1L, journal.getDroppedCount());
+  }
+
+  @Test
+  public void smallCapIsASingleSegmentThatStartsOverOnceReplayed() throws Exception {
+    File directory = folder.getRoot();
+    journal = open(directory, MEGABYTE, sender);
+    byte[] record = new byte[100 * 1024];
+
+    int appended = 0;
+    while (journal.append("key", record))
+      appended++;
+    assertEquals(1, segmentFiles(directory).length);
+    assertEquals(MEGABYTE, segmentFiles(directory)[0].length());
+
+    sender.permits.release(appended);
+    await(journal::isEmpty);
+    assertTrue(journal.append("key", record));
+    assertEquals(1L, journal.getPendingCount());
+  }
+
+  @Test
+  public void restartResumesAfterTheLastReplayedRecord() throws Exception {
+    File directory = folder.getRoot();
+    journal = open(directory, 4 * MEGABYTE, sender);
+    for (int i = 1; i <= 5; i++)
+      assertTrue(journal.append("key", payload(i)));
+
+    sender.permits.release(2);
+    assertEquals("key:1", sender.next());
+    assertEquals("key:2", sender.next());
+    await(() -> journal.getReplayedCount() == 2L);
+    journal.close();
+
+    GatedSender restarted = new GatedSender();
+    journal = open(directory, 4 * MEGABYTE, restarted);
+    assertEquals(3L, journal.getPendingCount());
+    restarted.permits.release(3);
+    assertEquals("key:3", restarted.next());
+    assertEquals("key:4", restarted.next());
+    assertEquals("key:5", restarted.next());
+    assertNull(sender.sent.poll());
+  }
+
+  @Test
+  public void directoryIsOnlyOpenedByOneJournal() throws Exception {
+    File directory = folder.getRoot();
+    journal = open(directory, MEGABYTE, sender);
+
+    SpillJournal second = new SpillJournal(directory, MEGABYTE, 1000, new GatedSender());
+    try {
+      second.open();
+      fail("the directory is locked by the first journal");
+    } catch (IOException expected) {
+    }
+
+    journal.close();
+    second.open();
+    journal = second;
+  }
+
+  @Test
+  public void failingFromAnAppendUntilASendSucceeds() throws Exception {
+    journal = open(folder.getRoot(), MEGABYTE, sender);
+    assertFalse(journal.isFailing());
+
+    journal.append("key", payload(1));
+    assertTrue(journal.isFailing());
+    journal.sendSucceeded();
+    assertFalse(journal.isFailing());
+
+    journal.append("key", payload(2));
+    sender.permits.release(2);
+    sender.next();
+    sender.next();
+    await(() -> !journal.isFailing());
+  }
+
+  @Test
+  public void directoryNameComesFromTheOutputId() {
+    assertEquals("out_1-a.b", SpillJournal.directoryName("out/1-a.b", "Endpoint=sb://hub"));
+    assertEquals(Integer.toHexString("Endpoint=sb://hub".hashCode()), SpillJournal.directoryName(null, "Endpoint=sb://hub"));
+  }
+
+  private static SpillJournal open(File directory, long maxBytes, SpillJournal.Sender sender) throws IOException {
+    SpillJournal journal = new SpillJournal(directory, maxBytes, 100000, sender);
+    journal.open();
+    return journal;
+  }
+
+  private static byte[] payload(int value) {
+    return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static File[] segmentFiles(File directory) {
+    return directory.listFiles((dir, name) -> name.endsWith(".journal"));
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline)
+        fail("timed out");
+      Thread.sleep(10L);
+    }
+  }
+
+  /**
+   * Sends one record for every permit, blocking the replay until the test hands out more.
+   */
+  private static final class GatedSender implements SpillJournal.Sender {
+    private final Semaphore permits = new Semaphore(0);
+    private final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+
+    @Override
+    public void send(String key, byte[] payload) throws Exception {
+      permits.acquire();
+      sent.add(key + ":" + new String(payload, StandardCharsets.UTF_8));
+    }
+
+    String next() throws InterruptedException {
+      String record = sent.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      if (record == null)
+        fail("nothing was replayed");
+      return record;
+    }
+  }
+}